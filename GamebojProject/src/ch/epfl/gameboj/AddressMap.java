@@ -5,7 +5,9 @@ public interface AddressMap {
     int[] INTERRUPTS = new int[]{ 0x40, 0x48, 0x50, 0x58, 0x60 };
 
     int BOOT_ROM_START = 0x0000, BOOT_ROM_END = 0x0100, BOOT_ROM_SIZE = BOOT_ROM_END - BOOT_ROM_START;
+    int ROM_START = 0x0000, ROM_END = 0x8000, ROM_BANK_SIZE = 0x4000;
     int VIDEO_RAM_START = 0x8000, VIDEO_RAM_END = 0xA000, VIDEO_RAM_SIZE = VIDEO_RAM_END - VIDEO_RAM_START;
+    int CARTRIDGE_RAM_START = 0xA000, CARTRIDGE_RAM_END = 0xC000;
     int WORK_RAM_START = 0xC000, WORK_RAM_END = 0xE000, WORK_RAM_SIZE = WORK_RAM_END - WORK_RAM_START;
     int ECHO_RAM_START = 0xE000, ECHO_RAM_END = 0xFE00, ECHO_RAM_SIZE = ECHO_RAM_END - ECHO_RAM_START;
     int OAM_START = 0xFE00, OAM_END = 0xFEA0, OAM_RAM_SIZE = OAM_END - OAM_START;
@@ -14,6 +16,7 @@ public interface AddressMap {
     // Video RAM
     int[] TILE_SOURCE = new int[] { 0x8800, 0x8000 };
     int[] BG_DISPLAY_DATA = new int[] { 0x9800, 0x9C00 };
+    int TILE_DATA_START = 0x8000, TILE_DATA_END = 0x9800;
 
     // Memory-mapped "IO" registers
     int REGS_START = 0xFF00;
@@ -1,12 +1,14 @@
 package ch.epfl.gameboj;
 
+import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 import ch.epfl.gameboj.component.Component;
+import ch.epfl.gameboj.component.memory.Ram;
 
 /**
  * Class Bus, represents data and address bus
@@ -16,17 +18,79 @@ import ch.epfl.gameboj.component.Component;
  */
 public final class Bus {
 
-    private final ArrayList<Component> components = new ArrayList<Component>();
+    private static final int PAGE_BITS = 8;
+    private static final int PAGES = 1 << (16 - PAGE_BITS);
+
+    // components which may have data in each 256 bytes page, in the order
+    // they were attached
+    private final Component[][] pages = new Component[PAGES][0];
+    // ram directly accessed in each page, with the addresses it is mapped at
+    private final Ram[] rams = new Ram[PAGES];
+    private final int[] ramStarts = new int[PAGES], ramEnds = new int[PAGES];
 
     /**
-     * Attaches given component to bus
+     * Attaches given component to bus, in the pages touched by its address
+     * ranges
      * 
      * @param component
      * @throws NullPointerException
      *             if component is null
+     * @throws IllegalArgumentException
+     *             if the address ranges of the component are not valid
      */
-    public void attach(Component component) throws NullPointerException {
-        components.add(Objects.requireNonNull(component));
+    public void attach(Component component) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(component);
+        int[] ranges = component.addressRanges();
+        checkArgument(ranges.length % 2 == 0);
+        for (int i = 0; i < ranges.length; i += 2) {
+            int start = ranges[i], end = ranges[i + 1];
+            checkArgument(start >= 0 && start < end && end <= 0x10000);
+            for (int page = start >> PAGE_BITS; page <= (end - 1) >> PAGE_BITS; ++page) {
+                addToPage(page, component);
+            }
+        }
+    }
+
+    /**
+     * Maps given ram between given addresses, the bus then reads and writes it
+     * directly instead of going through a component
+     * 
+     * @param ram
+     * @param startAddress, address of the first byte of the ram
+     * @param endAddress, address following the last mapped byte
+     * @throws NullPointerException
+     *             if ram is null
+     * @throws IllegalArgumentException
+     *             if the addresses are not valid or exceed the ram size, or
+     *             if a 256 bytes page they touch already maps a ram
+     */
+    public void attachRam(Ram ram, int startAddress, int endAddress) 
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(ram);
+        checkArgument(startAddress >= 0 && startAddress < endAddress && endAddress <= 0x10000
+                && endAddress - startAddress <= ram.size());
+        int firstPage = startAddress >> PAGE_BITS, lastPage = (endAddress - 1) >> PAGE_BITS;
+        // a page maps a single ram
+        for (int page = firstPage; page <= lastPage; ++page) {
+            checkArgument(rams[page] == null);
+        }
+        for (int page = firstPage; page <= lastPage; ++page) {
+            rams[page] = ram;
+            ramStarts[page] = startAddress;
+            ramEnds[page] = endAddress;
+        }
+    }
+
+    private void addToPage(int page, Component component) {
+        Component[] components = pages[page];
+        for (Component c : components) {
+            if (c == component) {
+                return;
+            }
+        }
+        components = Arrays.copyOf(components, components.length + 1);
+        components[components.length - 1] = component;
+        pages[page] = components;
     }
 
     /**
@@ -41,7 +105,12 @@ public final class Bus {
     public int read(int address) throws IllegalArgumentException {
         int data = Component.NO_DATA;
         address = checkBits16(address);
-        for (Component c : components) {
+        int page = address >> PAGE_BITS;
+        Ram ram = rams[page];
+        if (ram != null && address >= ramStarts[page] && address < ramEnds[page]) {
+            return ram.read(address - ramStarts[page]);
+        }
+        for (Component c : pages[page]) {
             data = c.read(address);
             if (data != Component.NO_DATA) {
                 return data;
@@ -50,6 +119,57 @@ public final class Bus {
         return 0xFF;
     }
 
+    /**
+     * reads given number of bytes from given address into given array, at once
+     * if they all belong to the same ram
+     * 
+     * @param address, of the first byte
+     * @param destination
+     * @param offset, in destination of the first byte
+     * @param length, number of bytes to read
+     * @throws IllegalArgumentException
+     *             if the addresses are not 16 bits values
+     * @throws IndexOutOfBoundsException
+     *             if the bytes do not fit in the destination array
+     */
+    public void read(int address, byte[] destination, int offset, int length) 
+            throws IllegalArgumentException, IndexOutOfBoundsException {
+        address = checkBits16(address);
+        Objects.checkFromIndexSize(offset, length, destination.length);
+        if (length == 0) {
+            return;
+        }
+        checkBits16(address + length - 1);
+        int page = address >> PAGE_BITS;
+        Ram ram = rams[page];
+        if (ram != null && address >= ramStarts[page] && address + length <= ramEnds[page]) {
+            ram.read(address - ramStarts[page], destination, offset, length);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                destination[offset + i] = (byte) read(address + i);
+            }
+        }
+    }
+
+    /**
+     * returns the first cycle at which the value at given address may change
+     * by itself, according to the components attached to the bus
+     * 
+     * @param address
+     * @return first cycle at which the value may change, Long.MAX_VALUE if it
+     *         does not change by itself
+     * @throws IllegalArgumentException
+     *             if the address is not a 16 bits value
+     */
+    public long stableUntil(int address) throws IllegalArgumentException {
+        address = checkBits16(address);
+        long cycle = Long.MAX_VALUE;
+        for (Component c : pages[address >> PAGE_BITS]) {
+            cycle = Math.min(cycle, c.stableUntil(address));
+        }
+        return cycle;
+    }
+
     /**
      * write given value in given address for all attached components
      * 
@@ -62,7 +182,13 @@ public final class Bus {
     public void write(int address, int data) throws IllegalArgumentException {
         address = checkBits16(address);
         data = checkBits8(data);
-        for (Component c : components) {
+        int page = address >> PAGE_BITS;
+        Ram ram = rams[page];
+        if (ram != null && address >= ramStarts[page] && address < ramEnds[page]) {
+            ram.write(address - ramStarts[page], data);
+            return;
+        }
+        for (Component c : pages[page]) {
             c.write(address, data);
         }
     }
@@ -43,12 +43,12 @@ public final class GameBoy {
         BootRomController bootRomController = 
                 new BootRomController(Objects.requireNonNull(cartridge));
         bus = new Bus();
-        cpu = new Cpu();
+        cpu = new Cpu(bootRomController::romBank);
         timer = new Timer(cpu);
         lcdController = new LcdController(cpu);
         joypad = new Joypad(cpu);
-        bus.attach(workRamController);
-        bus.attach(workRamCopyController);
+        workRamController.attachTo(bus);
+        workRamCopyController.attachTo(bus);
         cpu.attachTo(bus);
         lcdController.attachTo(bus);
         bus.attach(bootRomController);
@@ -75,7 +75,8 @@ public final class GameBoy {
     }
 
     /**
-     * Calls cycle method of all clocked components until given cycle -1
+     * Calls cycle method of all clocked components until given cycle -1,
+     *  jumping directly from one event of a component to the next one
      * 
      * @param cycle
      * @throws IllegalArgumentException
@@ -86,10 +87,20 @@ public final class GameBoy {
             timer.cycle(cycles);
             lcdController.cycle(cycles);
             cpu.cycle(cycles);
-            ++cycles;
+            // the cpu runs alone until another component has something to do
+            long next = Math.min(timer.nextEventCycle(cycles + 1), 
+                    lcdController.nextEventCycle(cycles + 1));
+            long now = cpu.runUntil(Math.min(cycle, next));
+            cycles = Math.min(cycle, nextEventCycle(now));
         }
     }
 
+    // earliest cycle, not before given one, at which a component has something to do
+    private long nextEventCycle(long cycle) {
+        long next = Math.min(timer.nextEventCycle(cycle), lcdController.nextEventCycle(cycle));
+        return Math.min(next, cpu.nextEventCycle(cycle));
+    }
+
     /**
      * Returns total numbers of cycles simulated
      * 
@@ -14,7 +14,11 @@ import java.util.Objects;
  * @author Gianni Lodetti (275085)
  */
 public final class BitVector {
-    private final int[] vectorValues;
+    private static final int WORD_SIZE = Long.SIZE;
+    // words of 64 bits, the one of index 0 holding the bits 0 to 63, the bits
+    // beyond the size of the vector being always 0
+    private final long[] words;
+    private final int size;
 
     // the two type of extraction
     private enum ExtractType {
@@ -24,10 +28,16 @@ public final class BitVector {
     /**
      * Construct a bit vector with given values
      * 
-     * @param vectorValues, array of values
+     * @param vectorValues, array of values, the one of index 0 holding the
+     *        32 most significant bits
      */
     public BitVector(int[] vectorValues) {
-        this.vectorValues = vectorValues; //
+        this(new long[wordCount(vectorValues.length * Integer.SIZE)],
+                vectorValues.length * Integer.SIZE);
+        for (int i = 0; i < vectorValues.length; ++i) {
+            int index = (vectorValues.length - 1 - i) * Integer.SIZE;
+            words[index / WORD_SIZE] |= (vectorValues[i] & 0xFFFF_FFFFL) << (index % WORD_SIZE);
+        }
     }
 
     /**
@@ -38,7 +48,7 @@ public final class BitVector {
      * @param value, value assigned to all bits
      */
     public BitVector(int size, boolean value) {
-        this(arrayBuilder(size, value));
+        this(arrayBuilder(size, value), size);
     }
 
     /**
@@ -48,15 +58,34 @@ public final class BitVector {
      * @param size, size of vector
      */
     public BitVector(int size) {
-        this(arrayBuilder(size, false));
+        this(arrayBuilder(size, false), size);
+    }
+
+    private BitVector(long[] words, int size) {
+        this.words = words;
+        this.size = size;
     }
 
     // used by constructors to build an array filled with a given value
-    private static int[] arrayBuilder(int size, boolean value) {
+    private static long[] arrayBuilder(int size, boolean value) {
         checkArgument(size > 0 && size % Integer.SIZE == 0);
-        int[] vectorValues = new int[size / Integer.SIZE];
-        Arrays.fill(vectorValues, value ? 0xFFFFFFFF : 0);
-        return vectorValues;
+        long[] words = new long[wordCount(size)];
+        if (value) {
+            Arrays.fill(words, -1L);
+            clearUnusedBits(words, size);
+        }
+        return words;
+    }
+
+    private static int wordCount(int size) {
+        return (size + WORD_SIZE - 1) / WORD_SIZE;
+    }
+
+    // sets to 0 the bits of the last word beyond given size
+    private static void clearUnusedBits(long[] words, int size) {
+        if (size % WORD_SIZE != 0) {
+            words[words.length - 1] &= -1L >>> (WORD_SIZE - size % WORD_SIZE);
+        }
     }
 
     /**
@@ -65,7 +94,7 @@ public final class BitVector {
      * @return size of the bitVector
      */
     public int size() {
-        return vectorValues.length * Integer.SIZE;
+        return size;
     }
 
     /**
@@ -75,10 +104,10 @@ public final class BitVector {
      * @return boolean value of the bit
      */
     public boolean testBit(int index) {
-        if (index < 0 || index >= size()) {
+        if (index < 0 || index >= size) {
             throw new IndexOutOfBoundsException();
         }
-        return Bits.test(vectorValues[indexInArray(index)], indexInInt(index));
+        return ((words[index / WORD_SIZE] >>> index) & 1) != 0;
     }
 
     /**
@@ -87,11 +116,12 @@ public final class BitVector {
      * @return bitVector with all bits inverted
      */
     public BitVector not() {
-        int[] newVectValues = new int[vectorValues.length];
-        for (int i = 0; i < vectorValues.length; i++) {
-            newVectValues[i] = ~vectorValues[i];
+        long[] newWords = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            newWords[i] = ~words[i];
         }
-        return new BitVector(newVectValues);
+        clearUnusedBits(newWords, size);
+        return new BitVector(newWords, size);
     }
 
     /**
@@ -103,11 +133,11 @@ public final class BitVector {
      */
     public BitVector and(BitVector that) {
         checkArgument(that.size() == this.size());
-        int[] newVectValues = new int[vectorValues.length];
-        for (int i = 0; i < vectorValues.length; i++) {
-            newVectValues[i] = that.vectorValues[i] & this.vectorValues[i];
+        long[] newWords = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            newWords[i] = that.words[i] & this.words[i];
         }
-        return new BitVector(newVectValues);
+        return new BitVector(newWords, size);
     }
 
     /**
@@ -119,11 +149,35 @@ public final class BitVector {
      */
     public BitVector or(BitVector that) {
         checkArgument(that.size() == this.size());
-        int[] newVectValues = new int[vectorValues.length];
-        for (int i = 0; i < vectorValues.length; i++) {
-            newVectValues[i] = that.vectorValues[i] | this.vectorValues[i];
+        long[] newWords = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            newWords[i] = that.words[i] | this.words[i];
+        }
+        return new BitVector(newWords, size);
+    }
+
+    /**
+     * Computes new bitVector whose bits are the values of a boolean function
+     * of the bits of this and given bitVector at the same index, in one pass
+     * 
+     * @param that, given bitVector
+     * @param truthTable, 4 bits whose bit at index 2 * a + b is the value of the
+     *        function for bit a of this and bit b of that
+     * @return the bitVector of the values of the function
+     */
+    public BitVector map(BitVector that, int truthTable) {
+        checkArgument(that.size() == this.size());
+        checkArgument(truthTable >= 0 && truthTable < 16);
+        // all ones if the function is true for the corresponding bits
+        long f00 = -(truthTable & 1), f01 = -((truthTable >> 1) & 1);
+        long f10 = -((truthTable >> 2) & 1), f11 = -((truthTable >> 3) & 1);
+        long[] newWords = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            long a = this.words[i], b = that.words[i];
+            newWords[i] = (~a & ~b & f00) | (~a & b & f01) | (a & ~b & f10) | (a & b & f11);
         }
-        return new BitVector(newVectValues);
+        clearUnusedBits(newWords, size);
+        return new BitVector(newWords, size);
     }
 
     /**
@@ -164,66 +218,69 @@ public final class BitVector {
 
     // used by extraction method to compute wanted bitVector
     private BitVector extract(int index, int size, ExtractType type) {
-        int[] values = new int[size / Integer.SIZE];
-        for (int i = 0; i < values.length; ++i) {
-            values[values.length - 1 - i] = extractElement(index + i * 32, type);
-        }
-        return new BitVector(values);
-    }
-
-    // extracts 32 bits from index using given extract type
-    private int extractElement(int index, ExtractType type) {
-        int element = 0;
-        if (type == ExtractType.ZERO_EXT) {
-            // if entire element to extract is contained in array
-            if (index < size() - Integer.SIZE && index >= 0) {
-                int lsb = Bits.extract(vectorValues[indexInArray(index)],
-                        indexInInt(index), Integer.SIZE - indexInInt(index));
-                int msb = Bits.extract(vectorValues[indexInArray(index) - 1], 0,
-                        indexInInt(index));
-                return (msb << Integer.SIZE - indexInInt(index)) | lsb; 
-            }
-            // if index belongs to [-31, 0[
-            if (index < 0 && Integer.SIZE + index >= 0) {
-                element = Bits.extract(vectorValues[vectorValues.length - 1], 0,
-                        Integer.SIZE + index) << -index;
-            }
-            // if index belongs to [size-32, size[
-            if (index >= size() - Integer.SIZE && index < size()) {
-                element = Bits.extract(vectorValues[0],
-                        indexInInt(index), Integer.SIZE - indexInInt(index));
+        long[] newWords = new long[wordCount(size)];
+        if (type == ExtractType.WRAPPED && this.size % WORD_SIZE != 0) {
+            for (int i = 0; i < newWords.length; ++i) {
+                newWords[i] = wrappedWord(index + i * WORD_SIZE);
             }
         } else {
-            // compute and extracts indexes of msb and lsb in original bitVector to simulate an 
-            // infinitely wrapped bitVector
-            int lsbIndex = indexInArray(Math.floorMod(index, size()));
-            int msbIndex = indexInArray(Math.floorMod(index + Integer.SIZE, size()));
-
-            int lsb = Bits.extract(vectorValues[lsbIndex], indexInInt(index), Integer.SIZE - indexInInt(index));
-            int msb = Bits.extract(vectorValues[msbIndex], 0, indexInInt(index));
-
-            return (msb << Integer.SIZE - indexInInt(index) | lsb);
-       }
-        return element;
+            // the words of the extension are read at the same offset
+            int firstWord = Math.floorDiv(index, WORD_SIZE);
+            int offset = Math.floorMod(index, WORD_SIZE);
+            for (int i = 0; i < newWords.length; ++i) {
+                long low = word(firstWord + i, type);
+                newWords[i] = offset == 0 ? low
+                        : (low >>> offset) | (word(firstWord + i + 1, type) << (WORD_SIZE - offset));
+            }
+        }
+        clearUnusedBits(newWords, size);
+        return new BitVector(newWords, size);
     }
-    
-    private int indexInArray(int index) {
-        return vectorValues.length - 1 - Math.floorDiv(index, Integer.SIZE);
+
+    // returns the word of given index of the extension of this, which has a
+    // size multiple of 64 when wrapped
+    private long word(int index, ExtractType type) {
+        if (type == ExtractType.WRAPPED) {
+            return words[Math.floorMod(index, words.length)];
+        }
+        return index >= 0 && index < words.length ? words[index] : 0;
     }
 
-    private int indexInInt(int index) {
-        return Math.floorMod(index, Integer.SIZE);
+    // extracts 64 bits from index of the wrapped extension of this, whose
+    // size is not a multiple of 64
+    private long wrappedWord(int index) {
+        long word = 0;
+        int position = Math.floorMod(index, size);
+        for (int filled = 0; filled < WORD_SIZE; position = 0) {
+            int length = Math.min(WORD_SIZE - filled, size - position);
+            int offset = position % WORD_SIZE;
+            long bits = words[position / WORD_SIZE] >>> offset;
+            if (offset != 0 && position / WORD_SIZE + 1 < words.length) {
+                bits |= words[position / WORD_SIZE + 1] << (WORD_SIZE - offset);
+            }
+            if (length < WORD_SIZE) {
+                bits &= (1L << length) - 1;
+            }
+            word |= bits << filled;
+            filled += length;
+        }
+        return word;
     }
 
     @Override
     public boolean equals(Object that) {
-        return (that instanceof BitVector) && 
-                Arrays.equals(((BitVector)that).vectorValues, this.vectorValues);
+        return (that instanceof BitVector) && ((BitVector)that).size == this.size &&
+                Arrays.equals(((BitVector)that).words, this.words);
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(vectorValues);
+        // hash of the 32 bits values, the most significant first
+        int hash = 1;
+        for (int i = size / Integer.SIZE - 1; i >= 0; --i) {
+            hash = 31 * hash + (int) (words[i / 2] >>> (i % 2 * Integer.SIZE));
+        }
+        return hash;
     }
 
     @Override
@@ -235,13 +292,15 @@ public final class BitVector {
     }
 
     /**
-     * Builder of a BitVector
+     * Builder of a BitVector, whose bits may also be combined in place with
+     * those of other vectors
      * 
      * @author Omid Karimi (273816)
      * @author Gianni Lodetti (275085)
      */
     public final static class Builder {
-        private int[] values;
+        private long[] values;
+        private final int size;
 
         /**
          * Construct a bitVector builder of given size
@@ -250,7 +309,8 @@ public final class BitVector {
          */
         public Builder(int size) {
             checkArgument(size >= 0 && size % Integer.SIZE == 0);
-            values = new int[size/Integer.SIZE];
+            values = new long[wordCount(size)];
+            this.size = size;
         }
 
         /**
@@ -263,12 +323,62 @@ public final class BitVector {
          */
         public BitVector.Builder setByte(int index, int b) {
             b = checkBits8(b);
-            int indexInInt = (index * Byte.SIZE) % Integer.SIZE;
-            int indexInArray = values.length - 1 - index/4;
             if (values == null) 
                 throw new IllegalStateException();
-            Objects.checkIndex(index, values.length * Integer.SIZE);
-            values[indexInArray] |= b << indexInInt;
+            Objects.checkIndex(index, size / Byte.SIZE);
+            values[index * Byte.SIZE / WORD_SIZE] |= (long) b << (index * Byte.SIZE % WORD_SIZE);
+            return this;
+        }
+
+        /**
+         * Computes in place the conjunction of the bits with those of given
+         * bitVector
+         * 
+         * @param that, given bitVector
+         * @return this
+         * @throws IllegalStateException if the builder as already been built
+         */
+        public BitVector.Builder and(BitVector that) {
+            if (values == null) 
+                throw new IllegalStateException();
+            checkArgument(that.size() == size);
+            for (int i = 0; i < values.length; ++i) {
+                values[i] &= that.words[i];
+            }
+            return this;
+        }
+
+        /**
+         * Computes in place the disjunction of the bits with those of given
+         * bitVector
+         * 
+         * @param that, given bitVector
+         * @return this
+         * @throws IllegalStateException if the builder as already been built
+         */
+        public BitVector.Builder or(BitVector that) {
+            if (values == null) 
+                throw new IllegalStateException();
+            checkArgument(that.size() == size);
+            for (int i = 0; i < values.length; ++i) {
+                values[i] |= that.words[i];
+            }
+            return this;
+        }
+
+        /**
+         * Inverts in place all the bits
+         * 
+         * @return this
+         * @throws IllegalStateException if the builder as already been built
+         */
+        public BitVector.Builder not() {
+            if (values == null) 
+                throw new IllegalStateException();
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = ~values[i];
+            }
+            clearUnusedBits(values, size);
             return this;
         }
 
@@ -281,7 +391,7 @@ public final class BitVector {
         public BitVector build() {
             if (values == null) 
                 throw new IllegalStateException();
-            BitVector v = new BitVector(values);
+            BitVector v = new BitVector(values, size);
             values = null;
             return v;
         }
@@ -14,4 +14,17 @@ public interface Clocked {
      * @param cycle
      */
     void cycle(long cycle);
+
+    /**
+     * returns the first cycle, not before the given one, at which the component
+     * has something to do, calling cycle() before it would do nothing.
+     * By default the component has to be clocked at every cycle
+     * 
+     * @param cycle
+     * @return next cycle at which the component must be clocked, or
+     *         Long.MAX_VALUE if it is waiting for an external event
+     */
+    default long nextEventCycle(long cycle) {
+        return cycle;
+    }
 }
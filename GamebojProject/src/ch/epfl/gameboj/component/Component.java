@@ -38,6 +38,31 @@ public interface Component {
      */
     public abstract void write(int address, int data) throws IllegalArgumentException;
 
+    /**
+     * Returns the address ranges in which the component may have data, as
+     * pairs of start address (included) and end address (excluded). The bus
+     * only reads and writes the component in the 256 bytes pages these ranges
+     * touch. By default the whole address space
+     * 
+     * @return start and end addresses of the ranges
+     */
+    default int[] addressRanges() {
+        return new int[] { 0, 0x10000 };
+    }
+
+    /**
+     * Returns the first cycle at which the value at given address may change
+     * by itself, other than through a write or a cycle of a clocked component.
+     * By default such values never change
+     * 
+     * @param address
+     * @return first cycle at which the value may change, Long.MAX_VALUE if it
+     *         does not change by itself
+     */
+    default long stableUntil(int address) {
+        return Long.MAX_VALUE;
+    }
+
     /**
      * Attaches component to given bus
      * 
@@ -47,6 +47,11 @@ public final class Joypad implements Component {
         return Component.NO_DATA;
     }
 
+    @Override
+    public int[] addressRanges() {
+        return new int[] { AddressMap.REG_P1, AddressMap.REG_P1 + 1 };
+    }
+
     @Override
     public void write(int address, int data) throws IllegalArgumentException {
         address = checkBits16(address);
@@ -22,6 +22,8 @@ public final class Timer implements Component, Clocked {
     private int TMA;
     private int TAC;
     private boolean s0 = state();
+    // last cycle taken into account by the timer
+    private long lastCycle = -1;
 
     /**
      * Construct a timer of the cpu
@@ -35,6 +37,55 @@ public final class Timer implements Component, Clocked {
 
     @Override
     public void cycle(long cycle) {
+        // an overflow caused by a write is handled by the first cycle
+        if (lastCycle < cycle && TIMA > 0xFF) {
+            tick();
+            ++lastCycle;
+        }
+        // catches up at once with the cycles elapsed since the last call
+        if (lastCycle < cycle) {
+            advance(cycle - lastCycle);
+            lastCycle = cycle;
+        }
+    }
+
+    @Override
+    public long nextEventCycle(long cycle) {
+        // an overflow caused by a write is handled at the next cycle
+        if (TIMA > 0xFF) {
+            return cycle;
+        }
+        if (!Bits.test(TAC, 2)) {
+            return Long.MAX_VALUE;
+        }
+        // secondary timer is incremented when the main timer reaches a multiple of period,
+        // the increments before the overflow are caught up lazily
+        int period = 1 << (mainTimerIndex() + 1);
+        long firstIncrement = lastCycle + (period - (mainTimer & (period - 1))) / 4;
+        return Math.max(cycle, firstIncrement + (long) (0xFF - TIMA) * (period / 4));
+    }
+
+    // makes the timer evolve by given number of cycles, as many calls to tick() would
+    private void advance(long cycles) {
+        long start = mainTimer;
+        long end = start + 4 * cycles;
+        mainTimer = Bits.clip(16, (int) end);
+        if (!Bits.test(TAC, 2)) {
+            return;
+        }
+        // secondary timer is incremented each time the main timer reaches a multiple of period
+        int periodBits = mainTimerIndex() + 1;
+        long increments = (end >> periodBits) - (start >> periodBits);
+        if (TIMA + increments > 0xFF) {
+            cpu.requestInterrupt(Interrupt.TIMER);
+            TIMA = TMA + (int) ((increments - (0x100 - TIMA)) % (0x100 - TMA));
+        } else {
+            TIMA += increments;
+        }
+    }
+
+    // makes the timer evolve by one cycle
+    private void tick() {
         s0 = state();
         mainTimer = Bits.clip(16, mainTimer + 4);
         // increments secondary timer
@@ -49,6 +100,8 @@ public final class Timer implements Component, Clocked {
     @Override
     public int read(int address) throws IllegalArgumentException {
         address = checkBits16(address);
+        // the cpu may have run ahead of the last call to cycle()
+        cycle(cpu.currentCycle());
         if (address == AddressMap.REG_DIV) {
             // because only the 8 MSB bits are at this address
             return (mainTimer >> 8);
@@ -65,10 +118,25 @@ public final class Timer implements Component, Clocked {
         return Component.NO_DATA;
     }
 
+    @Override
+    public long stableUntil(int address) {
+        // DIV and TIMA change with time
+        if (address == AddressMap.REG_DIV || address == AddressMap.REG_TIMA) {
+            return cpu.currentCycle();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int[] addressRanges() {
+        return new int[] { AddressMap.REG_DIV, AddressMap.REG_TAC + 1 };
+    }
+
     @Override
     public void write(int address, int data) throws IllegalArgumentException {
         address = checkBits16(address);
         data = checkBits8(data);
+        cycle(cpu.currentCycle());
         if (address == AddressMap.REG_DIV) {
             s0 = state();
             mainTimer = 0;
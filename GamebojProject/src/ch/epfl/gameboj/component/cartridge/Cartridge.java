@@ -64,6 +64,16 @@ public final class Cartridge implements Component {
         mbc.write(address, data);
     }
     
+    /**
+     * Returns the number of the rom bank mapped at given address
+     * 
+     * @param address, below 0x8000
+     * @return rom bank number, always 0 for a cartridge without MBC1
+     */
+    public int romBank(int address) {
+        return (mbc instanceof MBC1) ? ((MBC1)mbc).romBank(address) : 0;
+    }
+
     private static int getRamSize(byte[] romData) {
         return RAM_SIZE[romData[RAM_SIZE_ADDR]];
     }
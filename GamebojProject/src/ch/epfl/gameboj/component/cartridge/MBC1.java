@@ -77,6 +77,18 @@ public final class MBC1 implements Component {
         }
     }
 
+    /**
+     * Returns the number of the rom bank mapped at given address
+     * 
+     * @param address, below 0x8000
+     * @return rom bank number
+     */
+    public int romBank(int address) {
+        int romAddress = address < 0x4000 ? romAddress(msb2(), 0, address)
+                : romAddress(ramRom2, romLsb5, address);
+        return romAddress >> 14;
+    }
+
     private int msb2() {
         switch (mode) {
         case MODE_0: return 0;
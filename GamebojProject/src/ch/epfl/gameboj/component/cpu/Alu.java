@@ -7,6 +7,7 @@ import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
 import java.util.Objects;
+import java.util.function.IntUnaryOperator;
 
 /**
  * Class Arithmetic Logic Unit (ALU)
@@ -19,6 +20,23 @@ public final class Alu {
     private Alu() {
     }
 
+    // packed values/flags of the operations, for every possible input, indexed
+    // by the carry (or direction) followed by the 8 bits inputs
+    private static final char[] ADD_TABLE = table(1 << 17, 
+            i -> computeAdd(Bits.extract(i, 8, 8), Bits.clip(8, i), Bits.test(i, 16)));
+    private static final char[] SUB_TABLE = table(1 << 17, 
+            i -> computeSub(Bits.extract(i, 8, 8), Bits.clip(8, i), Bits.test(i, 16)));
+    private static final char[] BCD_ADJUST_TABLE = table(1 << 11, 
+            i -> computeBcdAdjust(Bits.clip(8, i), Bits.test(i, 10), Bits.test(i, 9), Bits.test(i, 8)));
+    private static final char[] ROTATE_TABLE = table(1 << 9, 
+            i -> computeRotate(RotDir.values()[Bits.extract(i, 8, 1)], Bits.clip(8, i)));
+    private static final char[] ROTATE_CARRY_TABLE = table(1 << 10, 
+            i -> computeRotate(RotDir.values()[Bits.extract(i, 9, 1)], Bits.clip(8, i), Bits.test(i, 8)));
+    private static final char[] SWAP_TABLE = table(1 << 8, Alu::computeSwap);
+    private static final char[] SHIFT_LEFT_TABLE = table(1 << 8, Alu::computeShiftLeft);
+    private static final char[] SHIFT_RIGHT_A_TABLE = table(1 << 8, Alu::computeShiftRightA);
+    private static final char[] SHIFT_RIGHT_L_TABLE = table(1 << 8, Alu::computeShiftRightL);
+
     /**
      * Assigning flags to bits
      *
@@ -116,6 +134,10 @@ public final class Alu {
      */
     public static int add(int l, int r, boolean c0) {
         check8Bits(l, r);
+        return ADD_TABLE[boolToInt(c0) << 16 | l << 8 | r];
+    }
+
+    private static int computeAdd(int l, int r, boolean c0) {
         int carry = boolToInt(c0);
         int sum = l + r + carry;
         boolean h = Bits.clip(4, r) + Bits.clip(4, l) + carry > 0xF;
@@ -189,6 +211,10 @@ public final class Alu {
      */
     public static int sub(int l, int r, boolean b0) {
         check8Bits(l, r);
+        return SUB_TABLE[boolToInt(b0) << 16 | l << 8 | r];
+    }
+
+    private static int computeSub(int l, int r, boolean b0) {
         int borrow = boolToInt(b0);
         int sub = l - (r + borrow);
         boolean c = l < (r + borrow);
@@ -227,6 +253,10 @@ public final class Alu {
      */
     public static int bcdAdjust(int v, boolean n, boolean h, boolean c) {
         v = checkBits8(v);
+        return BCD_ADJUST_TABLE[boolToInt(n) << 10 | boolToInt(h) << 9 | boolToInt(c) << 8 | v];
+    }
+
+    private static int computeBcdAdjust(int v, boolean n, boolean h, boolean c) {
         boolean fixL = h | (!n & Bits.clip(4, v) > 0x9);
         boolean fixH = c | (!n & v > 0x99);
         int fix = (fixH ? 6 : 0) << 4 | (fixL ? 6 : 0);
@@ -282,7 +312,10 @@ public final class Alu {
      * @throws IllegalArgumentException        
      */
     public static int shiftLeft(int v) {
-        checkBits8(v);
+        return SHIFT_LEFT_TABLE[checkBits8(v)];
+    }
+
+    private static int computeShiftLeft(int v) {
         // save the value of ejected bit
         boolean c = Bits.test(v, 7);
         v = Bits.clip(8, v << 1);
@@ -297,7 +330,10 @@ public final class Alu {
      *         to shift
      */
     public static int shiftRightA(int v) {
-        checkBits8(v);
+        return SHIFT_RIGHT_A_TABLE[checkBits8(v)];
+    }
+
+    private static int computeShiftRightA(int v) {
         // save the value of ejected bit
         boolean c = Bits.test(v, 0);
         v = Bits.clip(8, Bits.signExtend8(v) >> 1);
@@ -313,7 +349,10 @@ public final class Alu {
      * @throws IllegalArgumentException 
      */
     public static int shiftRightL(int v) {
-        checkBits8(v);
+        return SHIFT_RIGHT_L_TABLE[checkBits8(v)];
+    }
+
+    private static int computeShiftRightL(int v) {
         return packValueZNHC(v >>> 1, (v >>> 1) == 0, false, false, Bits.test(v, 0));
     }
 
@@ -327,6 +366,10 @@ public final class Alu {
      */
     public static int rotate(RotDir d, int v) {
         v = checkBits8(v);
+        return ROTATE_TABLE[d.ordinal() << 8 | v];
+    }
+
+    private static int computeRotate(RotDir d, int v) {
         // default values set to rotate right
         int distance = - 1;
         // save the value that passes from one side to the other
@@ -350,6 +393,10 @@ public final class Alu {
      */
     public static int rotate(RotDir d, int v, boolean c) {
         v = checkBits8(v);
+        return ROTATE_CARRY_TABLE[d.ordinal() << 9 | boolToInt(c) << 8 | v];
+    }
+
+    private static int computeRotate(RotDir d, int v, boolean c) {
         int vWithCarry = Bits.set(v, 8, c);
         int distance = d == RotDir.LEFT ? 1 : -1;
         int rotatedBits = Bits.rotate(9, vWithCarry, distance);
@@ -365,7 +412,10 @@ public final class Alu {
      *         swapped
      */
     public static int swap(int v) {
-        v = checkBits8(v);
+        return SWAP_TABLE[checkBits8(v)];
+    }
+
+    private static int computeSwap(int v) {
         int lowB = Bits.clip(4, v);
         int highB = Bits.extract(v, 4, 4);
         int newValue = (lowB << 4) | highB;
@@ -388,6 +438,16 @@ public final class Alu {
         return packValueZNHC(0, !Bits.test(v, bitIndex), false, true, false);
     }
 
+    // computes the packed values/flags of an operation for all the inputs,
+    // each of them fits in 16 bits
+    private static char[] table(int size, IntUnaryOperator operation) {
+        char[] table = new char[size];
+        for (int i = 0; i < size; ++i) {
+            table[i] = (char) operation.applyAsInt(i);
+        }
+        return table;
+    }
+
     // Verifies that two given inputs are 8 bit numbers
     private static void check8Bits(int l, int r) throws IllegalArgumentException {
         l = checkBits8(l);
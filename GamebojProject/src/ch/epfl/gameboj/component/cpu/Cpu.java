@@ -3,6 +3,9 @@ package ch.epfl.gameboj.component.cpu;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 import static ch.epfl.gameboj.Preconditions.checkBits16;
 
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Register;
@@ -24,30 +27,126 @@ import ch.epfl.gameboj.component.memory.Ram;
 public final class Cpu implements Component, Clocked {
 
     private long nextNonIdleCycle = 0;
+    // cycle at which the current (or last) instruction started, -1 before the first one
+    private long currentCycle = -1;
+    // the instructions starting before this cycle can be executed without interruption
+    private long burstEnd = 0;
     private static final Opcode[] DIRECT_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.DIRECT);
     private static final Opcode[] PREFIXED_OPCODE_TABLE = buildOpcodeTable(Opcode.Kind.PREFIXED);
     private static final int OPCODE_PREFIX = 0xCB;
+    private static final int MAX_BLOCK_LENGTH = 32;
+    private final Instruction[] directInstructions = buildInstructionTable(DIRECT_OPCODE_TABLE);
+    private final Instruction[] prefixedInstructions = buildInstructionTable(PREFIXED_OPCODE_TABLE);
     private final RegisterFile<Reg> bench = new RegisterFile<>(Reg.values());
     private int Pc = 0;
     private int Sp = 0;
+    // address of the instruction following the one being executed
+    private int nextPc = 0;
     private Bus bus;
     private Ram highRam = new Ram(AddressMap.HIGH_RAM_SIZE);
     private boolean IME = false;
+    // last operation and its operands, if its flags are not in register F yet
+    private LazyOp lazyOp = LazyOp.NONE;
+    private int lazyL, lazyR, lazyCarry, lazyResult;
     private int regIE = 0;
     private int regIF = 0;
+    private final IntUnaryOperator romBank;
+    // decoded blocks, by address of their first instruction and by rom bank
+    private final Block[] blocks = new Block[0x10000];
+    // incremented at each write in the corresponding 256 bytes page
+    private final int[] pageVersions = new int[0x100];
+    private Block currentBlock = null;
+    private int blockIndex = 0;
+    // immediate operand of the instruction being executed
+    private int operand = 0;
+    // loop entered since the beginning of the burst without side effect, with
+    // the cycle and registers at its entry
+    private Block idleLoop = null;
+    private long idleLoopStart = 0, idleLoopRegisters = 0;
+    // first cycle at which a register read by the loop may change
+    private long idleLoopEnd = Long.MAX_VALUE;
+    private int idleLoopSp = 0;
+    private boolean idleLoopIME = false;
 
     private enum Reg implements Register {
         A, F, B, C, D, E, H, L
     }
+    private static final Reg[] REGS = Reg.values();
 
     private enum Reg16 implements Register {
         AF, BC, DE, HL
     }
 
+    // operations whose flags are computed only when they are read
+    private enum LazyOp {
+        NONE, ADD, SUB, AND, OR, XOR, INC, DEC
+    }
+
     private enum FlagSrc {
         V0, V1, ALU, CPU
     }
 
+    // instruction of the cpu, with its operands already resolved
+    @FunctionalInterface
+    private interface Instruction {
+        void execute();
+    }
+
+    // sequence of decoded instructions, ending with a jump
+    private final class Block {
+        private final int bank, firstPage, lastPage, firstVersion, lastVersion;
+        private final int[] pcs, operands;
+        private final Opcode[] opcodes;
+        private final Instruction[] instructions;
+        // block at the same address, but for another rom bank
+        private Block next = null;
+        // true if the block ends with a jump to its first instruction
+        private boolean loop = false;
+
+        private Block(int bank, int end, int[] pcs, int[] operands, 
+                Opcode[] opcodes, Instruction[] instructions) {
+            this.bank = bank;
+            this.firstPage = pcs[0] >> 8;
+            this.lastPage = (end - 1) >> 8;
+            this.firstVersion = pageVersions[firstPage];
+            this.lastVersion = pageVersions[lastPage];
+            this.pcs = pcs;
+            this.operands = operands;
+            this.opcodes = opcodes;
+            this.instructions = instructions;
+        }
+
+        private int length() {
+            return pcs.length;
+        }
+
+        // true if no instruction of the block has been overwritten since it was decoded
+        private boolean isValid() {
+            return pageVersions[firstPage] == firstVersion && pageVersions[lastPage] == lastVersion;
+        }
+
+        private boolean contains(int page) {
+            return page >= firstPage && page <= lastPage;
+        }
+    }
+
+    /**
+     * Construct a cpu whose code in the rom is mapped by given function
+     * 
+     * @param romBank, gives the number of the rom bank mapped at an address
+     *            below 0x8000, used to identify the decoded instructions
+     */
+    public Cpu(IntUnaryOperator romBank) {
+        this.romBank = romBank;
+    }
+
+    /**
+     * Construct a cpu for which the rom is never switched
+     */
+    public Cpu() {
+        this(address -> 0);
+    }
+
     /**
      * types of interruption that could be requested
      *
@@ -71,6 +170,12 @@ public final class Cpu implements Component, Clocked {
         return Component.NO_DATA;
     }
 
+    @Override
+    public int[] addressRanges() {
+        return new int[] { AddressMap.REG_IF, AddressMap.REG_IF + 1, 
+                AddressMap.HIGH_RAM_START, AddressMap.REG_IE + 1 };
+    }
+
     @Override
     public void write(int address, int data) throws IllegalArgumentException {
         address = checkBits16(address);
@@ -97,10 +202,49 @@ public final class Cpu implements Component, Clocked {
         }
     }
 
+    @Override
+    public long nextEventCycle(long cycle) {
+        // a halted cpu only wakes up when an enabled interrupt is requested
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return (regIE & regIF) != 0 ? cycle : Long.MAX_VALUE;
+        }
+        return nextNonIdleCycle;
+    }
+
+    /**
+     * Executes one after the other all the instructions starting before given
+     *  cycle. Stops earlier after a HALT or a write to an IO register, since
+     *  the other components may then have something to do
+     * 
+     * @param cycle, first cycle at which another component has something to do
+     * @return the cycle from which the other components must be clocked again
+     */
+    public long runUntil(long cycle) {
+        burstEnd = cycle;
+        while (nextNonIdleCycle < burstEnd) {
+            reallyCycle();
+        }
+        // the other components may change what the loop reads
+        idleLoop = null;
+        return burstEnd;
+    }
+
+    /**
+     * Returns the cycle at which the instruction being executed started, or
+     *  the one at which the last instruction started when none is executed,
+     *  or -1 if the cpu has not executed anything yet
+     * 
+     * @return current cycle of the cpu
+     */
+    public long currentCycle() {
+        return currentCycle;
+    }
+
     /**
      * called by the method cycle() when the cpu is not on halt
      */
     private void reallyCycle() {
+        currentCycle = nextNonIdleCycle;
         // interruption manager
         if (IME && (regIE & regIF) != 0) {
             IME = false;
@@ -110,15 +254,178 @@ public final class Cpu implements Component, Clocked {
             Pc = AddressMap.INTERRUPTS[index];
             nextNonIdleCycle += 5;
         } else {
-            Opcode opcode = read8(Pc) == OPCODE_PREFIX ? 
-                    PREFIXED_OPCODE_TABLE[read8(Pc + 1)] : DIRECT_OPCODE_TABLE[read8(Pc)];
-            dispatch(opcode);
+            if (currentBlock == null || blockIndex == currentBlock.length() 
+                    || currentBlock.pcs[blockIndex] != Pc) {
+                currentBlock = blockAt(Pc);
+                blockIndex = 0;
+                if (currentBlock.loop && skipIdleLoop(currentBlock)) {
+                    return;
+                }
+            }
+            Opcode opcode = currentBlock.opcodes[blockIndex];
+            operand = currentBlock.operands[blockIndex];
+            nextPc = Pc + opcode.totalBytes;
+            currentBlock.instructions[blockIndex++].execute();
+            Pc = nextPc;
             nextNonIdleCycle += opcode.cycles;
-            if (testCondition(opcode)) 
+            if (opcode.additionalCycles != 0 && testCondition(opcode)) 
                 nextNonIdleCycle += opcode.additionalCycles;
         }
     }
 
+    // if the given loop was already entered with the same registers and nothing
+    // was written since, it will run the same way until the end of the burst or
+    // until a register it reads changes: skips its iterations that end before
+    private boolean skipIdleLoop(Block loop) {
+        long registers = packedRegisters();
+        if (loop == idleLoop && registers == idleLoopRegisters && Sp == idleLoopSp 
+                && IME == idleLoopIME) {
+            long iteration = nextNonIdleCycle - idleLoopStart;
+            long end = Math.min(burstEnd, idleLoopEnd);
+            long iterations = Math.max(0, end - nextNonIdleCycle) / iteration;
+            nextNonIdleCycle += iterations * iteration;
+            idleLoop = null;
+            return iterations > 0;
+        }
+        idleLoop = loop;
+        idleLoopStart = nextNonIdleCycle;
+        idleLoopRegisters = registers;
+        idleLoopSp = Sp;
+        idleLoopIME = IME;
+        idleLoopEnd = Long.MAX_VALUE;
+        return false;
+    }
+
+    // the eight 8 bits registers in a long
+    private long packedRegisters() {
+        flags();
+        long registers = 0;
+        for (Reg r : REGS) {
+            registers = registers << Byte.SIZE | bench.get(r);
+        }
+        return registers;
+    }
+
+    // returns the valid block starting at given address, decodes it if needed
+    private Block blockAt(int pc) {
+        int end = cacheableRegionEnd(pc);
+        if (end < 0) {
+            return decodeBlock(pc, 0, pc + 1);
+        }
+        int bank = pc < AddressMap.ROM_END ? romBank.applyAsInt(pc) : 0;
+        Block previous = null;
+        for (Block b = blocks[pc]; b != null; b = b.next) {
+            if (b.bank == bank) {
+                if (b.isValid()) {
+                    return b;
+                }
+                // outdated, removed from the blocks
+                if (previous == null) {
+                    blocks[pc] = b.next;
+                } else {
+                    previous.next = b.next;
+                }
+                break;
+            }
+            previous = b;
+        }
+        Block block = decodeBlock(pc, bank, end);
+        // an instruction overlapping two regions is never kept
+        if (block.length() > 1 || pc + block.opcodes[0].totalBytes <= end) {
+            block.next = blocks[pc];
+            blocks[pc] = block;
+        }
+        return block;
+    }
+
+    // decodes the instructions from given address, until a jump or given end address
+    private Block decodeBlock(int pc, int bank, int end) {
+        int[] pcs = new int[MAX_BLOCK_LENGTH];
+        int[] operands = new int[MAX_BLOCK_LENGTH];
+        Opcode[] opcodes = new Opcode[MAX_BLOCK_LENGTH];
+        Instruction[] instructions = new Instruction[MAX_BLOCK_LENGTH];
+        int length = 0;
+        int address = pc;
+        boolean jump = false;
+        while (!jump && length < MAX_BLOCK_LENGTH) {
+            int encoding = read8(address);
+            Opcode opcode;
+            Instruction instruction;
+            if (encoding == OPCODE_PREFIX) {
+                encoding = read8(address + 1);
+                opcode = PREFIXED_OPCODE_TABLE[encoding];
+                instruction = prefixedInstructions[encoding];
+            } else {
+                opcode = DIRECT_OPCODE_TABLE[encoding];
+                instruction = directInstructions[encoding];
+            }
+            // the first instruction is always decoded, the others must fit in
+            // the region and in two pages
+            int last = address + opcode.totalBytes - 1;
+            if (length > 0 && (last >= end || (last >> 8) > (pc >> 8) + 1)) {
+                break;
+            }
+            pcs[length] = address;
+            opcodes[length] = opcode;
+            instructions[length] = instruction;
+            if (opcode.kind == Kind.DIRECT && opcode.totalBytes == 2) {
+                operands[length] = read8(address + 1);
+            } else if (opcode.kind == Kind.DIRECT && opcode.totalBytes == 3) {
+                operands[length] = read16(address + 1);
+            }
+            ++length;
+            address += opcode.totalBytes;
+            jump = endsBlock(opcode.family);
+        }
+        Block block = new Block(bank, address, Arrays.copyOf(pcs, length), Arrays.copyOf(operands, length),
+                Arrays.copyOf(opcodes, length), Arrays.copyOf(instructions, length));
+        block.loop = jumpTarget(opcodes[length - 1], pcs[length - 1], operands[length - 1]) == pc;
+        return block;
+    }
+
+    // address to which given jump instruction jumps when taken, -1 if not known
+    // while decoding
+    private static int jumpTarget(Opcode opcode, int pc, int operand) {
+        switch (opcode.family) {
+        case JR_E8: case JR_CC_E8:
+            return Bits.clip(16, pc + opcode.totalBytes + Bits.signExtend8(operand));
+        case JP_N16: case JP_CC_N16:
+            return operand;
+        default:
+            return -1;
+        }
+    }
+
+    // true for the instructions after which the next one is not necessarily the following one
+    private static boolean endsBlock(Opcode.Family family) {
+        switch (family) {
+        case JP_HL: case JP_N16: case JP_CC_N16: case JR_E8: case JR_CC_E8:
+        case CALL_N16: case CALL_CC_N16: case RST_U3: case RET: case RET_CC:
+        case RETI: case HALT: case STOP:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // end of the memory region containing given address, in which the code can
+    // be kept decoded, or -1 if the code at this address must always be decoded
+    private static int cacheableRegionEnd(int address) {
+        if (address < AddressMap.BOOT_ROM_END) {
+            return AddressMap.BOOT_ROM_END;
+        }
+        if (address < AddressMap.ROM_END) {
+            return (address & -AddressMap.ROM_BANK_SIZE) + AddressMap.ROM_BANK_SIZE;
+        }
+        if (address >= AddressMap.WORK_RAM_START && address < AddressMap.WORK_RAM_END) {
+            return AddressMap.WORK_RAM_END;
+        }
+        if (address >= AddressMap.HIGH_RAM_START) {
+            return AddressMap.REG_IE + 1;
+        }
+        return -1;
+    }
+
     @Override
     public void attachTo(Bus bus) {
         this.bus = bus;
@@ -132,7 +439,7 @@ public final class Cpu implements Component, Clocked {
      */
     public int[] _testGetPcSpAFBCDEHL() {
         int[] PcSpAFBCDEHL = new int[] { Pc, Sp, bench.get(Reg.A),
-                bench.get(Reg.F), bench.get(Reg.B), bench.get(Reg.C),
+                flags(), bench.get(Reg.B), bench.get(Reg.C),
                 bench.get(Reg.D), bench.get(Reg.E), bench.get(Reg.H),
                 bench.get(Reg.L) };
         return PcSpAFBCDEHL;
@@ -147,482 +454,390 @@ public final class Cpu implements Component, Clocked {
         regIF = regIF | (1 << i.index());
     }
 
-    // treats the instructions
-    private void dispatch(Opcode opcode) {
-        int nextPc = Pc + opcode.totalBytes;
-        switch (opcode.family) {
-        case NOP: {
+    // builds the table of the instructions of given opcodes
+    private Instruction[] buildInstructionTable(Opcode[] opcodes) {
+        Instruction[] instructions = new Instruction[opcodes.length];
+        for (int i = 0; i < opcodes.length; ++i) {
+            if (opcodes[i] != null) {
+                instructions[i] = instruction(opcodes[i]);
+            }
         }
-            break;
+        return instructions;
+    }
+
+    // creates the instruction of given opcode, its operands being resolved once for all
+    private Instruction instruction(Opcode opcode) {
+        switch (opcode.family) {
+        case NOP: 
+            return () -> {};
         case LD_R8_HLR: {
-            bench.set(extractReg(opcode, 3), read8AtHl());
+            Reg r = extractReg(opcode, 3);
+            return () -> bench.set(r, read8AtHl());
         }
-            break;
         case LD_A_HLRU: {
-            bench.set(Reg.A, read8AtHl());
-            setReg16(Reg16.HL, Bits.clip(16, reg16(Reg16.HL) + extractHlIncrement(opcode)));
-        }
-            break;
-        case LD_A_N8R: {
-            bench.set(Reg.A, read8(AddressMap.REGS_START + read8AfterOpcode()));
-        }
-            break;
-        case LD_A_CR: {
-            bench.set(Reg.A, read8(AddressMap.REGS_START + bench.get(Reg.C)));
-        }
-            break;
-        case LD_A_N16R: {
-            bench.set(Reg.A, read8(read16AfterOpcode()));
-        }
-            break;
-        case LD_A_BCR: {
-            bench.set(Reg.A, read8(reg16(Reg16.BC)));
-        }
-            break;
-        case LD_A_DER: {
-            bench.set(Reg.A, read8(reg16(Reg16.DE)));
-        }
-            break;
+            int increment = extractHlIncrement(opcode);
+            return () -> {
+                bench.set(Reg.A, read8AtHl());
+                setReg16(Reg16.HL, Bits.clip(16, reg16(Reg16.HL) + increment));
+            };
+        }
+        case LD_A_N8R: 
+            return () -> bench.set(Reg.A, read8(AddressMap.REGS_START + read8AfterOpcode()));
+        case LD_A_CR: 
+            return () -> bench.set(Reg.A, read8(AddressMap.REGS_START + bench.get(Reg.C)));
+        case LD_A_N16R: 
+            return () -> bench.set(Reg.A, read8(read16AfterOpcode()));
+        case LD_A_BCR: 
+            return () -> bench.set(Reg.A, read8(reg16(Reg16.BC)));
+        case LD_A_DER: 
+            return () -> bench.set(Reg.A, read8(reg16(Reg16.DE)));
         case LD_R8_N8: {
-            bench.set(extractReg(opcode, 3), read8AfterOpcode());
+            Reg r = extractReg(opcode, 3);
+            return () -> bench.set(r, read8AfterOpcode());
         }
-            break;
         case LD_R16SP_N16: {
-            setReg16SP(extractReg16(opcode), read16AfterOpcode());
+            Reg16 r = extractReg16(opcode);
+            return () -> setReg16SP(r, read16AfterOpcode());
         }
-            break;
         case POP_R16: {
-            setReg16(extractReg16(opcode), pop16());
+            Reg16 r = extractReg16(opcode);
+            return () -> setReg16(r, pop16());
         }
-            break;
         case LD_HLR_R8: {
-            write8AtHl(bench.get(extractReg(opcode, 0)));
+            Reg r = extractReg(opcode, 0);
+            return () -> write8AtHl(bench.get(r));
         }
-            break;
         case LD_HLRU_A: {
-            write8AtHl(bench.get(Reg.A));
-            setReg16(Reg16.HL, Bits.clip(16, reg16(Reg16.HL) + extractHlIncrement(opcode)));
-        }
-            break;
-        case LD_N8R_A: {
-            write8(AddressMap.REGS_START + read8AfterOpcode(), bench.get(Reg.A));
-        }
-            break;
-        case LD_CR_A: {
-            write8(AddressMap.REGS_START + bench.get(Reg.C), bench.get(Reg.A));
-        }
-            break;
-        case LD_N16R_A: {
-            write8(read16AfterOpcode(), bench.get(Reg.A));
-        }
-            break;
-        case LD_BCR_A: {
-            write8(reg16(Reg16.BC), bench.get(Reg.A));
-        }
-            break;
-        case LD_DER_A: {
-            write8(reg16(Reg16.DE), bench.get(Reg.A));
-        }
-            break;
-        case LD_HLR_N8: {
-            write8(reg16(Reg16.HL), read8AfterOpcode());
-        }
-            break;
-        case LD_N16R_SP: {
-            write16(read16AfterOpcode(), Sp);
-        }
-            break;
+            int increment = extractHlIncrement(opcode);
+            return () -> {
+                write8AtHl(bench.get(Reg.A));
+                setReg16(Reg16.HL, Bits.clip(16, reg16(Reg16.HL) + increment));
+            };
+        }
+        case LD_N8R_A: 
+            return () -> write8(AddressMap.REGS_START + read8AfterOpcode(), bench.get(Reg.A));
+        case LD_CR_A: 
+            return () -> write8(AddressMap.REGS_START + bench.get(Reg.C), bench.get(Reg.A));
+        case LD_N16R_A: 
+            return () -> write8(read16AfterOpcode(), bench.get(Reg.A));
+        case LD_BCR_A: 
+            return () -> write8(reg16(Reg16.BC), bench.get(Reg.A));
+        case LD_DER_A: 
+            return () -> write8(reg16(Reg16.DE), bench.get(Reg.A));
+        case LD_HLR_N8: 
+            return () -> write8(reg16(Reg16.HL), read8AfterOpcode());
+        case LD_N16R_SP: 
+            return () -> write16(read16AfterOpcode(), Sp);
         case LD_R8_R8: {
             Reg r = extractReg(opcode, 3);
             Reg s = extractReg(opcode, 0);
-            bench.set(r, bench.get(s));
+            return () -> bench.set(r, bench.get(s));
         }
-            break;
-        case LD_SP_HL: {
-            Sp = reg16(Reg16.HL);
-        }
-            break;
+        case LD_SP_HL: 
+            return () -> Sp = reg16(Reg16.HL);
         case PUSH_R16: {
-            push16(reg16(extractReg16(opcode)));
+            Reg16 r = extractReg16(opcode);
+            return () -> push16(reg16(r));
         }
-            break;
-            
+
         // Add
         case ADD_A_N8: {
-            int newValueA = Alu.add(bench.get(Reg.A), read8AfterOpcode(),
-                    extractFlag(Alu.Flag.C) && Bits.test(opcode.encoding, 3));
-            setRegFlags(Reg.A, newValueA);
+            boolean withCarry = Bits.test(opcode.encoding, 3);
+            return () -> bench.set(Reg.A, add8(bench.get(Reg.A), read8AfterOpcode(), withCarry));
         }
-            break;
         case ADD_A_R8: {
-            int newValueA = Alu.add(bench.get(Reg.A), bench.get(extractReg(opcode, 0)),
-                        extractFlag(Alu.Flag.C) && Bits.test(opcode.encoding, 3));
-            setRegFlags(Reg.A, newValueA);
+            Reg r = extractReg(opcode, 0);
+            boolean withCarry = Bits.test(opcode.encoding, 3);
+            return () -> bench.set(Reg.A, add8(bench.get(Reg.A), bench.get(r), withCarry));
         }
-            break;
         case ADD_A_HLR: {
-            int newValueA = Alu.add(bench.get(Reg.A), read8AtHl(),
-                    extractFlag(Alu.Flag.C) && Bits.test(opcode.encoding, 3));
-            setRegFlags(Reg.A, newValueA);
+            boolean withCarry = Bits.test(opcode.encoding, 3);
+            return () -> bench.set(Reg.A, add8(bench.get(Reg.A), read8AtHl(), withCarry));
         }
-            break;
         case INC_R8: {
-            int newValue = Alu.add(bench.get(extractReg(opcode, 3)), 1);
-            setRegFromAlu(extractReg(opcode, 3), newValue);
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
-        }
-            break;
-        case INC_HLR: {
-            int newValue = Alu.add(read8AtHl(), 1);
-            write8AtHl(Alu.unpackValue(newValue));
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.CPU);
+            Reg r = extractReg(opcode, 3);
+            return () -> bench.set(r, incDec8(LazyOp.INC, bench.get(r)));
         }
-            break;
+        case INC_HLR: 
+            return () -> write8AtHl(incDec8(LazyOp.INC, read8AtHl()));
         case INC_R16SP: {
             Reg16 r = extractReg16(opcode);
             if (r == Reg16.AF) {
-                Sp = Alu.unpackValue(Alu.add16H(Sp, 1));
-            } else {
-                setReg16(r, Alu.unpackValue(Alu.add16H(reg16(r), 1)));
+                return () -> Sp = Alu.unpackValue(Alu.add16H(Sp, 1));
             }
+            return () -> setReg16(r, Alu.unpackValue(Alu.add16H(reg16(r), 1)));
         }
-            break;
         case ADD_HL_R16SP: {
             Reg16 r = extractReg16(opcode);
-            int registerValue = r == Reg16.AF ? Sp : reg16(r);
-            int newValue = Alu.add16H(registerValue, reg16(Reg16.HL));
-            setReg16(Reg16.HL, Alu.unpackValue(newValue));
-            combineAluFlags(newValue, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
+            return () -> {
+                int registerValue = r == Reg16.AF ? Sp : reg16(r);
+                int newValue = Alu.add16H(registerValue, reg16(Reg16.HL));
+                setReg16(Reg16.HL, Alu.unpackValue(newValue));
+                combineAluFlags(newValue, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
+            };
         }
-            break;
         case LD_HLSP_S8: {
-            int newValue = Alu.add16L(Sp, Bits.clip(16, signExtendOpcode(opcode)));
-            if (Bits.test(opcode.encoding, 4)) {
-                setReg16(Reg16.HL, Alu.unpackValue(newValue));
-            } else {
-                Sp = Alu.unpackValue(newValue);
-            }
-            combineAluFlags(newValue, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
+            boolean toHl = Bits.test(opcode.encoding, 4);
+            return () -> {
+                int newValue = Alu.add16L(Sp, Bits.clip(16, signExtend8AfterOpcode()));
+                if (toHl) {
+                    setReg16(Reg16.HL, Alu.unpackValue(newValue));
+                } else {
+                    Sp = Alu.unpackValue(newValue);
+                }
+                combineAluFlags(newValue, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU, FlagSrc.ALU);
+            };
         }
-            break;
 
         // Subtract
         case SUB_A_N8: {
-            int newValueA = Alu.sub(bench.get(Reg.A), read8AfterOpcode(),
-                        extractFlag(Alu.Flag.C) && Bits.test(opcode.encoding, 3));
-            setRegFlags(Reg.A, newValueA);
+            boolean withBorrow = Bits.test(opcode.encoding, 3);
+            return () -> bench.set(Reg.A, sub8(bench.get(Reg.A), read8AfterOpcode(), withBorrow));
         }
-            break;
         case SUB_A_R8: {
-            int newValueA = Alu.sub(bench.get(Reg.A), bench.get(extractReg(opcode, 0)),
-                        extractFlag(Alu.Flag.C) && Bits.test(opcode.encoding, 3));
-            setRegFlags(Reg.A, newValueA);
+            Reg r = extractReg(opcode, 0);
+            boolean withBorrow = Bits.test(opcode.encoding, 3);
+            return () -> bench.set(Reg.A, sub8(bench.get(Reg.A), bench.get(r), withBorrow));
         }
-            break;
         case SUB_A_HLR: {
-            int newValueA = Alu.sub(bench.get(Reg.A), read8AtHl(),
-                        extractFlag(Alu.Flag.C) && Bits.test(opcode.encoding, 3));
-            setRegFlags(Reg.A, newValueA);
+            boolean withBorrow = Bits.test(opcode.encoding, 3);
+            return () -> bench.set(Reg.A, sub8(bench.get(Reg.A), read8AtHl(), withBorrow));
         }
-            break;
         case DEC_R8: {
-            int newValue = Alu.sub(bench.get(extractReg(opcode, 3)), 1);
-            setRegFromAlu(extractReg(opcode, 3), newValue);
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
-        }
-            break;
-        case DEC_HLR: {
-            int newValue = Alu.sub(read8AtHl(), 1);
-            write8AtHl(Alu.unpackValue(newValue));
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.V1, FlagSrc.ALU, FlagSrc.CPU);
+            Reg r = extractReg(opcode, 3);
+            return () -> bench.set(r, incDec8(LazyOp.DEC, bench.get(r)));
         }
-            break;
+        case DEC_HLR: 
+            return () -> write8AtHl(incDec8(LazyOp.DEC, read8AtHl()));
         case CP_A_R8: {
-            int newValueA = Alu.sub(bench.get(Reg.A), bench.get(extractReg(opcode, 0)));
-            setFlags(newValueA);
-        }
-            break;
-        case CP_A_N8: {
-            int newValueA = Alu.sub(bench.get(Reg.A), read8AfterOpcode());
-            setFlags(newValueA);
-        }
-            break;
-        case CP_A_HLR: {
-            int newValueA = Alu.sub(bench.get(Reg.A), read8AtHl());
-            setFlags(newValueA);
+            Reg r = extractReg(opcode, 0);
+            return () -> sub8(bench.get(Reg.A), bench.get(r), false);
         }
-            break;
+        case CP_A_N8: 
+            return () -> sub8(bench.get(Reg.A), read8AfterOpcode(), false);
+        case CP_A_HLR: 
+            return () -> sub8(bench.get(Reg.A), read8AtHl(), false);
         case DEC_R16SP: {
             Reg16 r = extractReg16(opcode);
             if (r == Reg16.AF) {
-                Sp = Bits.clip(16, Sp - 1);
-            } else {
-                setReg16(r, Bits.clip(16, reg16(r) - 1));
+                return () -> Sp = Bits.clip(16, Sp - 1);
             }
+            return () -> setReg16(r, Bits.clip(16, reg16(r) - 1));
         }
-            break;
 
         // And, or, xor, complement
-        case AND_A_N8: {
-            int newValue = Alu.and(bench.get(Reg.A), read8AfterOpcode());
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
+        case AND_A_N8: 
+            return () -> bench.set(Reg.A, logic8(LazyOp.AND, bench.get(Reg.A), read8AfterOpcode()));
         case AND_A_R8: {
-            int newValue = Alu.and(bench.get(Reg.A), bench.get(extractReg(opcode, 0)));
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
-        case AND_A_HLR: {
-            int newValue = Alu.and(bench.get(Reg.A), read8AtHl());
-            setRegFlags(Reg.A, newValue);
+            Reg r = extractReg(opcode, 0);
+            return () -> bench.set(Reg.A, logic8(LazyOp.AND, bench.get(Reg.A), bench.get(r)));
         }
-            break;
+        case AND_A_HLR: 
+            return () -> bench.set(Reg.A, logic8(LazyOp.AND, bench.get(Reg.A), read8AtHl()));
         case OR_A_R8: {
-            int newValue = Alu.or(bench.get(Reg.A), bench.get(extractReg(opcode, 0)));
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
-        case OR_A_N8: {
-            int newValue = Alu.or(bench.get(Reg.A), read8AfterOpcode());
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
-        case OR_A_HLR: {
-            int newValue = Alu.or(bench.get(Reg.A), read8AtHl());
-            setRegFlags(Reg.A, newValue);
+            Reg r = extractReg(opcode, 0);
+            return () -> bench.set(Reg.A, logic8(LazyOp.OR, bench.get(Reg.A), bench.get(r)));
         }
-            break;
+        case OR_A_N8: 
+            return () -> bench.set(Reg.A, logic8(LazyOp.OR, bench.get(Reg.A), read8AfterOpcode()));
+        case OR_A_HLR: 
+            return () -> bench.set(Reg.A, logic8(LazyOp.OR, bench.get(Reg.A), read8AtHl()));
         case XOR_A_R8: {
-            int newValue = Alu.xor(bench.get(Reg.A), bench.get(extractReg(opcode, 0)));
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
-        case XOR_A_N8: {
-            int newValue = Alu.xor(bench.get(Reg.A), read8AfterOpcode());
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
-        case XOR_A_HLR: {
-            int newValue = Alu.xor(bench.get(Reg.A), read8AtHl());
-            setRegFlags(Reg.A, newValue);
-        }
-            break;
-        case CPL: {
-            int newValue = Bits.complement8(bench.get(Reg.A));
-            bench.set(Reg.A, newValue);
-            combineAluFlags(newValue, FlagSrc.CPU, FlagSrc.V1, FlagSrc.V1, FlagSrc.CPU);
-        }
-            break;
+            Reg r = extractReg(opcode, 0);
+            return () -> bench.set(Reg.A, logic8(LazyOp.XOR, bench.get(Reg.A), bench.get(r)));
+        }
+        case XOR_A_N8: 
+            return () -> bench.set(Reg.A, logic8(LazyOp.XOR, bench.get(Reg.A), read8AfterOpcode()));
+        case XOR_A_HLR: 
+            return () -> bench.set(Reg.A, logic8(LazyOp.XOR, bench.get(Reg.A), read8AtHl()));
+        case CPL: 
+            return () -> {
+                int newValue = Bits.complement8(bench.get(Reg.A));
+                bench.set(Reg.A, newValue);
+                combineAluFlags(newValue, FlagSrc.CPU, FlagSrc.V1, FlagSrc.V1, FlagSrc.CPU);
+            };
 
         // Rotate, shift
         case ROTCA: {
             RotDir rotDir = getRotDir(opcode);
-            int newValue = Alu.rotate(rotDir, bench.get(Reg.A));
-            setRegFromAlu(Reg.A, newValue);
-            combineAluFlags(newValue, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
+            return () -> {
+                int newValue = Alu.rotate(rotDir, bench.get(Reg.A));
+                setRegFromAlu(Reg.A, newValue);
+                combineAluFlags(newValue, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
+            };
         }
-            break;
         case ROTA: {
             RotDir rotDir = getRotDir(opcode);
-            int newValue = Alu.rotate(rotDir, bench.get(Reg.A), extractFlag(Alu.Flag.C));
-            setRegFromAlu(Reg.A, newValue);
-            combineAluFlags(newValue, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
+            return () -> {
+                int newValue = Alu.rotate(rotDir, bench.get(Reg.A), extractFlag(Alu.Flag.C));
+                setRegFromAlu(Reg.A, newValue);
+                combineAluFlags(newValue, FlagSrc.V0, FlagSrc.V0, FlagSrc.V0, FlagSrc.ALU);
+            };
         }
-            break;
         case ROTC_R8: {
             Reg r = extractReg(opcode, 0);
             RotDir rotDir = getRotDir(opcode);
-            int newValue = Alu.rotate(rotDir, bench.get(r));
-            setRegFlags(r, newValue);
+            return () -> setRegFlags(r, Alu.rotate(rotDir, bench.get(r)));
         }
-            break;
         case ROT_R8: {
             Reg r = extractReg(opcode, 0);
             RotDir rotDir = getRotDir(opcode);
-            int newValue = Alu.rotate(rotDir, bench.get(r), extractFlag(Alu.Flag.C));
-            setRegFlags(r, newValue);
+            return () -> setRegFlags(r, Alu.rotate(rotDir, bench.get(r), extractFlag(Alu.Flag.C)));
         }
-            break;
         case ROTC_HLR: {
             RotDir rotDir = getRotDir(opcode);
-            int newValue = Alu.rotate(rotDir, read8AtHl());
-            write8AtHlAndSetFlags(newValue);
+            return () -> write8AtHlAndSetFlags(Alu.rotate(rotDir, read8AtHl()));
         }
-            break;
         case ROT_HLR: {
             RotDir rotDir = getRotDir(opcode);
-            int newValue = Alu.rotate(rotDir, read8AtHl(), extractFlag(Alu.Flag.C));
-            write8AtHlAndSetFlags(newValue);
+            return () -> write8AtHlAndSetFlags(Alu.rotate(rotDir, read8AtHl(), extractFlag(Alu.Flag.C)));
         }
-            break;
         case SWAP_R8: {
-            int newValue = Alu.swap(bench.get(extractReg(opcode, 0)));
-            setRegFlags(extractReg(opcode, 0), newValue);
-        }
-            break;
-        case SWAP_HLR: {
-            int newValue = Alu.swap(read8AtHl());
-            write8AtHlAndSetFlags(newValue);
+            Reg r = extractReg(opcode, 0);
+            return () -> setRegFlags(r, Alu.swap(bench.get(r)));
         }
-            break;
+        case SWAP_HLR: 
+            return () -> write8AtHlAndSetFlags(Alu.swap(read8AtHl()));
         case SLA_R8: {
-            int newValue = Alu.shiftLeft(bench.get(extractReg(opcode, 0)));
-            setRegFlags(extractReg(opcode, 0), newValue);
+            Reg r = extractReg(opcode, 0);
+            return () -> setRegFlags(r, Alu.shiftLeft(bench.get(r)));
         }
-            break;
         case SRA_R8: {
-            int newValue = Alu.shiftRightA(bench.get(extractReg(opcode, 0)));
-            setRegFlags(extractReg(opcode, 0), newValue);
+            Reg r = extractReg(opcode, 0);
+            return () -> setRegFlags(r, Alu.shiftRightA(bench.get(r)));
         }
-            break;
         case SRL_R8: {
-            int newValue = Alu.shiftRightL(bench.get(extractReg(opcode, 0)));
-            setRegFlags(extractReg(opcode, 0), newValue);
-        }
-            break;
-        case SLA_HLR: {
-            int newValue = Alu.shiftLeft(read8AtHl());
-            write8AtHlAndSetFlags(newValue);
-        }
-            break;
-        case SRA_HLR: {
-            int newValue = Alu.shiftRightA(read8AtHl());
-            write8AtHlAndSetFlags(newValue);
-        }
-            break;
-        case SRL_HLR: {
-            int newValue = Alu.shiftRightL(read8AtHl());
-            write8AtHlAndSetFlags(newValue);
-        }
-            break;
+            Reg r = extractReg(opcode, 0);
+            return () -> setRegFlags(r, Alu.shiftRightL(bench.get(r)));
+        }
+        case SLA_HLR: 
+            return () -> write8AtHlAndSetFlags(Alu.shiftLeft(read8AtHl()));
+        case SRA_HLR: 
+            return () -> write8AtHlAndSetFlags(Alu.shiftRightA(read8AtHl()));
+        case SRL_HLR: 
+            return () -> write8AtHlAndSetFlags(Alu.shiftRightL(read8AtHl()));
 
         // Bit test and set
         case BIT_U3_R8: {
             Reg r = extractReg(opcode, 0);
-            int newValue = Alu.testBit(bench.get(r), extractIndex(opcode));
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
+            int index = extractIndex(opcode);
+            return () -> combineAluFlags(Alu.testBit(bench.get(r), index), 
+                    FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
         }
-            break;
         case BIT_U3_HLR: {
-            int newValue = Alu.testBit(read8AtHl(), extractIndex(opcode));
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
+            int index = extractIndex(opcode);
+            return () -> combineAluFlags(Alu.testBit(read8AtHl(), index), 
+                    FlagSrc.ALU, FlagSrc.V0, FlagSrc.V1, FlagSrc.CPU);
         }
-            break;
         case CHG_U3_R8: {
             Reg r = extractReg(opcode, 0);
             int index = extractIndex(opcode);
             if (Bits.test(opcode.encoding, 6)) {
-                setRegFromAlu(r, Alu.or(bench.get(r), 1 << index));
-            } else {
-                setRegFromAlu(r, Alu.and(bench.get(r), Bits.complement8(1 << index)));
+                return () -> setRegFromAlu(r, Alu.or(bench.get(r), 1 << index));
             }
+            return () -> setRegFromAlu(r, Alu.and(bench.get(r), Bits.complement8(1 << index)));
         }
-            break;
         case CHG_U3_HLR: {
             int index = extractIndex(opcode);
             if (Bits.test(opcode.encoding, 6)) {
-                write8AtHl(Alu.unpackValue(Alu.or(read8AtHl(), 1 << index)));
-            } else {
-                write8AtHl(Alu.unpackValue(Alu.and(read8AtHl(), Bits.complement8(1 << index))));
+                return () -> write8AtHl(Alu.unpackValue(Alu.or(read8AtHl(), 1 << index)));
             }
+            return () -> write8AtHl(Alu.unpackValue(Alu.and(read8AtHl(), Bits.complement8(1 << index))));
         }
-            break;
 
         // Misc. ALU
-        case DAA: {
-            int newValue = Alu.bcdAdjust(bench.get(Reg.A), extractFlag(Alu.Flag.N), 
-                                         extractFlag(Alu.Flag.H), extractFlag(Alu.Flag.C));
-            setRegFromAlu(Reg.A, newValue);
-            combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU);
-        }
-            break;
+        case DAA: 
+            return () -> {
+                int newValue = Alu.bcdAdjust(bench.get(Reg.A), extractFlag(Alu.Flag.N), 
+                                             extractFlag(Alu.Flag.H), extractFlag(Alu.Flag.C));
+                setRegFromAlu(Reg.A, newValue);
+                combineAluFlags(newValue, FlagSrc.ALU, FlagSrc.CPU, FlagSrc.V0, FlagSrc.ALU);
+            };
         case SCCF: {
-            int newFlags = bench.get(Reg.F) ^ Bits.mask(Alu.Flag.C.index());
             FlagSrc flagSrc = Bits.test(opcode.encoding, 3) ? FlagSrc.ALU : FlagSrc.V1;
-            combineAluFlags(newFlags, FlagSrc.CPU, FlagSrc.V0, FlagSrc.V0, flagSrc);
+            return () -> {
+                int newFlags = flags() ^ Bits.mask(Alu.Flag.C.index());
+                combineAluFlags(newFlags, FlagSrc.CPU, FlagSrc.V0, FlagSrc.V0, flagSrc);
+            };
         }
-            break;
 
         // Jumps
-        case JP_HL: {
-            nextPc = reg16(Reg16.HL);
-        }
-            break;
-        case JP_N16: {
-            nextPc = read16AfterOpcode();
-        }
-            break;
-        case JP_CC_N16: {
-            if (testCondition(opcode))
-                nextPc = read16AfterOpcode();
-        }
-            break;
-        case JR_E8: {
-            nextPc = Bits.clip(16, nextPc + signExtendOpcode(opcode));
-        }
-            break;
-        case JR_CC_E8: {
-            if (testCondition(opcode))
-                nextPc = Bits.clip(16, nextPc + signExtendOpcode(opcode));
-        }
-            break;
+        case JP_HL: 
+            return () -> nextPc = reg16(Reg16.HL);
+        case JP_N16: 
+            return () -> nextPc = read16AfterOpcode();
+        case JP_CC_N16: 
+            return () -> {
+                if (testCondition(opcode))
+                    nextPc = read16AfterOpcode();
+            };
+        case JR_E8: 
+            return () -> nextPc = Bits.clip(16, nextPc + signExtend8AfterOpcode());
+        case JR_CC_E8: 
+            return () -> {
+                if (testCondition(opcode))
+                    nextPc = Bits.clip(16, nextPc + signExtend8AfterOpcode());
+            };
 
         // Calls and returns
-        case CALL_N16: {
-            push16(nextPc);
-            nextPc = read16AfterOpcode();
-        }
-            break;
-        case CALL_CC_N16: {
-            if (testCondition(opcode)) {
+        case CALL_N16: 
+            return () -> {
                 push16(nextPc);
                 nextPc = read16AfterOpcode();
-            }
-        }
-            break;
+            };
+        case CALL_CC_N16: 
+            return () -> {
+                if (testCondition(opcode)) {
+                    push16(nextPc);
+                    nextPc = read16AfterOpcode();
+                }
+            };
         case RST_U3: {
-            push16(nextPc);
-            nextPc = AddressMap.RESETS[extractIndex(opcode)];
-        }
-            break;
-        case RET: {
-            nextPc = pop16();
-        }
-            break;
-        case RET_CC: {
-            if (testCondition(opcode)) 
-                nextPc = pop16();
-        }
-            break;
+            int address = AddressMap.RESETS[extractIndex(opcode)];
+            return () -> {
+                push16(nextPc);
+                nextPc = address;
+            };
+        }
+        case RET: 
+            return () -> nextPc = pop16();
+        case RET_CC: 
+            return () -> {
+                if (testCondition(opcode)) 
+                    nextPc = pop16();
+            };
 
         // Interrupts
         case EDI: {
-            IME = Bits.test(opcode.encoding, 3);
-        }
-            break;
-        case RETI: {
-            IME = true;
-            nextPc = pop16();
+            boolean enable = Bits.test(opcode.encoding, 3);
+            return () -> IME = enable;
         }
-            break;
+        case RETI: 
+            return () -> {
+                IME = true;
+                nextPc = pop16();
+            };
 
         // Misc control
-        case HALT: {
-            nextNonIdleCycle = Long.MAX_VALUE;
-        }
-            break;
+        case HALT: 
+            return () -> {
+                nextNonIdleCycle = Long.MAX_VALUE;
+                burstEnd = currentCycle + 1;
+            };
         case STOP:
-            throw new Error("STOP is not implemented");
+            return () -> {
+                throw new Error("STOP is not implemented");
+            };
+        default:
+            throw new IllegalArgumentException("Non valid opcode family");
         }
-        Pc = nextPc;
     }
     
     private RotDir getRotDir(Opcode opcode) {
         return Bits.test(opcode.encoding, 3) ? RotDir.RIGHT : RotDir.LEFT;
     }
     
-    private int signExtendOpcode(Opcode opcode) {
+    private int signExtend8AfterOpcode() {
         return Bits.signExtend8(read8AfterOpcode());
     }
 
@@ -639,7 +854,18 @@ public final class Cpu implements Component, Clocked {
 
     // read and write methods for the instructions
     private int read8(int address) {
-        return bus.read(address);
+        // the high ram belongs to the cpu, no need to go through the bus
+        if (address >= AddressMap.HIGH_RAM_START && address < AddressMap.HIGH_RAM_END) {
+            return highRam.read(address - AddressMap.HIGH_RAM_START);
+        }
+        int value = bus.read(address);
+        // some registers and the OAM during a copy change with time, a loop
+        // reading them is idle only until then
+        if (idleLoop != null && ((address >= AddressMap.REGS_START && address < AddressMap.HIGH_RAM_START)
+                || (address >= AddressMap.OAM_START && address < AddressMap.OAM_END))) {
+            idleLoopEnd = Math.min(idleLoopEnd, bus.stableUntil(address));
+        }
+        return value;
     }
 
     private int read8AtHl() {
@@ -647,7 +873,7 @@ public final class Cpu implements Component, Clocked {
     }
 
     private int read8AfterOpcode() {
-        return read8(Pc + 1);
+        return operand;
     }
 
     private int read16(int address) {
@@ -655,11 +881,34 @@ public final class Cpu implements Component, Clocked {
     }
 
     private int read16AfterOpcode() {
-        return read16(Pc + 1);
+        return operand;
     }
 
     private void write8(int address, int v) {
-        bus.write(address, v);
+        idleLoop = null;
+        if (address >= AddressMap.HIGH_RAM_START && address < AddressMap.HIGH_RAM_END) {
+            highRam.write(address - AddressMap.HIGH_RAM_START, v);
+        } else {
+            bus.write(address, v);
+        }
+        // the echo ram is a copy of the work ram
+        if (address >= AddressMap.ECHO_RAM_START && address < AddressMap.ECHO_RAM_END) {
+            address -= AddressMap.ECHO_RAM_START - AddressMap.WORK_RAM_START;
+        }
+        boolean register = address >= AddressMap.REGS_START && address < AddressMap.HIGH_RAM_START;
+        int page = address >> 8;
+        if (!register) {
+            ++pageVersions[page];
+        }
+        // the block being executed can be outdated, or the rom banks switched
+        if (currentBlock != null && (register || address < AddressMap.ROM_END 
+                || currentBlock.contains(page))) {
+            currentBlock = null;
+        }
+        // the next event of another component may have changed
+        if (register) {
+            burstEnd = Math.min(burstEnd, currentCycle + 1);
+        }
     }
 
     private void write16(int address, int v) {
@@ -686,7 +935,7 @@ public final class Cpu implements Component, Clocked {
     private int reg16(Reg16 r) {
         switch (r) {
         case AF: {
-            return Bits.make16(bench.get(Reg.A), bench.get(Reg.F));
+            return Bits.make16(bench.get(Reg.A), flags());
         }
         case BC: {
             return Bits.make16(bench.get(Reg.B), bench.get(Reg.C));
@@ -709,7 +958,7 @@ public final class Cpu implements Component, Clocked {
         case AF: {
             bench.set(Reg.A, Bits.extract(newV, 8, 8));
             // to make sure that 4 lsb bits are 0
-            bench.set(Reg.F, Bits.clip(8, newV) & (-1 << 4));
+            setFlags(Bits.clip(8, newV) & (-1 << 4));
         }
             break;
         case BC: {
@@ -769,6 +1018,7 @@ public final class Cpu implements Component, Clocked {
 
     private void setFlags(int valueFlags) {
         bench.set(Reg.F, Alu.unpackFlags(valueFlags));
+        lazyOp = LazyOp.NONE;
     }
 
     private void setRegFlags(Reg r, int vf) {
@@ -782,7 +1032,7 @@ public final class Cpu implements Component, Clocked {
     }
 
     private void combineAluFlags(int vf, FlagSrc z, FlagSrc n, FlagSrc h, FlagSrc c) {
-        int cpuFlags = bench.get(Reg.F);
+        int cpuFlags = flags();
         int aluFlags = Alu.unpackFlags(vf);
         int maskV1 = Alu.maskZNHC(z == FlagSrc.V1, n == FlagSrc.V1,
                                   h == FlagSrc.V1, c == FlagSrc.V1);
@@ -794,6 +1044,68 @@ public final class Cpu implements Component, Clocked {
         setFlags(newFlags);
     }
 
+    // 8 bits operations on A, whose value is computed at once but whose flags
+    // are computed by the alu only when they are read
+    private int add8(int l, int r, boolean withCarry) {
+        int carry = withCarry && extractFlag(Alu.Flag.C) ? 1 : 0;
+        return recordLazyFlags(LazyOp.ADD, l, r, carry, Bits.clip(8, l + r + carry));
+    }
+
+    private int sub8(int l, int r, boolean withBorrow) {
+        int borrow = withBorrow && extractFlag(Alu.Flag.C) ? 1 : 0;
+        return recordLazyFlags(LazyOp.SUB, l, r, borrow, Bits.clip(8, l - r - borrow));
+    }
+
+    private int logic8(LazyOp op, int l, int r) {
+        int result = op == LazyOp.AND ? l & r : op == LazyOp.OR ? l | r : l ^ r;
+        return recordLazyFlags(op, l, r, 0, result);
+    }
+
+    // the carry of the previous flags is kept
+    private int incDec8(LazyOp op, int v) {
+        int result = Bits.clip(8, op == LazyOp.INC ? v + 1 : v - 1);
+        return recordLazyFlags(op, v, 1, flags() & Alu.Flag.C.mask(), result);
+    }
+
+    private int recordLazyFlags(LazyOp op, int l, int r, int carry, int result) {
+        lazyOp = op;
+        lazyL = l;
+        lazyR = r;
+        lazyCarry = carry;
+        lazyResult = result;
+        return result;
+    }
+
+    // value of register F, computing the flags of the last operation if needed
+    private int flags() {
+        if (lazyOp != LazyOp.NONE) {
+            bench.set(Reg.F, lazyFlags());
+            lazyOp = LazyOp.NONE;
+        }
+        return bench.get(Reg.F);
+    }
+
+    private int lazyFlags() {
+        switch (lazyOp) {
+        case ADD:
+            return Alu.unpackFlags(Alu.add(lazyL, lazyR, lazyCarry != 0));
+        case SUB:
+            return Alu.unpackFlags(Alu.sub(lazyL, lazyR, lazyCarry != 0));
+        case AND:
+            return Alu.unpackFlags(Alu.and(lazyL, lazyR));
+        case OR:
+            return Alu.unpackFlags(Alu.or(lazyL, lazyR));
+        case XOR:
+            return Alu.unpackFlags(Alu.xor(lazyL, lazyR));
+        case INC:
+            return Alu.unpackFlags(Alu.add(lazyL, lazyR)) & ~Alu.Flag.C.mask() | lazyCarry;
+        case DEC:
+            return Alu.unpackFlags(Alu.sub(lazyL, lazyR)) & ~Alu.Flag.C.mask() | lazyCarry;
+        default:
+            return bench.get(Reg.F);
+        }
+    }
+
     // extract the index determined by opcode (for some instruction)
     private int extractIndex(Opcode opcode) {
         return Bits.extract(opcode.encoding, 3, 3);
@@ -801,12 +1113,15 @@ public final class Cpu implements Component, Clocked {
 
     // get the value of the given flag that is in register F
     private boolean extractFlag(Alu.Flag flag) {
-        return Bits.test(bench.get(Reg.F), flag.index());
+        return Bits.test(flags(), flag.index());
     }
 
     // for instruction with condition
     private boolean testCondition(Opcode opcode) {
         int cc = Bits.extract(opcode.encoding, 3, 2);
+        // the flag Z of every lazy operation only depends on its result
+        if (lazyOp != LazyOp.NONE && cc <= 0b01)
+            return (lazyResult == 0) == (cc == 0b01);
         if (cc == 0b00)
             return !extractFlag(Alu.Flag.Z);
         if (cc == 0b01)
@@ -5,15 +5,13 @@ import static ch.epfl.gameboj.Preconditions.checkBits16;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import java.util.Objects;
 
 import ch.epfl.gameboj.AddressMap;
 import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.Register;
 import ch.epfl.gameboj.RegisterFile;
 import ch.epfl.gameboj.bits.Bit;
-import ch.epfl.gameboj.bits.BitVector;
 import ch.epfl.gameboj.bits.Bits;
 import ch.epfl.gameboj.component.Clocked;
 import ch.epfl.gameboj.component.Component;
@@ -37,14 +35,33 @@ public final class LcdController implements Component, Clocked {
     private final Ram oamRam = new Ram(AddressMap.OAM_RAM_SIZE);
     private final RegisterFile<Reg> bench = new RegisterFile<>(Reg.values());
     private LcdImage currentImage;
-    private LcdImage.Builder nextImageBuilder;
+    private final LcdRenderer renderer = new LcdRenderer();
+    // draws the lines on another thread when not null
+    private LcdRenderThread renderThread;
+    private boolean renderConcurrently = false;
+    // copies of the video ram and the OAM given to the render thread, made
+    // again when their version changed
+    private Ram videoRamCopy, oamCopy;
+    // tiles whose bytes were changed since the last line given to the renderer,
+    // one bit per tile
+    private final long[] writtenTiles = new long[(LcdRenderer.TILES + Long.SIZE - 1) / Long.SIZE];
+    private boolean tilesWritten = false;
     private long nextNonIdleCycle = Long.MAX_VALUE;
     private int winY = 0;
+    private RenderPolicy renderPolicy = RenderPolicy.EVERY_FRAME;
+    private int renderPeriod = 1;
+    // number of frames started, whether a frame was requested and whether the
+    // current frame is drawn
+    private long frameCount = 0;
+    private boolean frameRequested = false;
+    private boolean drawingFrame = false;
     private boolean oamCopyActive = false;
     private int oamCopyCounter = 0;
-    
+    // cycle at which the first byte of the OAM copy is copied, one byte per cycle
+    private long oamCopyStart = 0;
+    private final byte[] oamCopyBuffer = new byte[AddressMap.OAM_RAM_SIZE];
     // represents register of the controller
-    private enum Reg implements Register {
+    enum Reg implements Register {
         LCDC, STAT, SCY, SCX, LY, LYC, DMA, BGP, OBP0, OBP1, WY, WX 
     }
     
@@ -53,19 +70,27 @@ public final class LcdController implements Component, Clocked {
         MODE0, MODE1, LYC_EQ_LY, INT_MODE0, INT_MODE1, INT_MODE2, INT_LYC, UNUSED
     }
     
+    private static final int STAT_INTERRUPTS = STATBits.INT_MODE0.mask() | STATBits.INT_MODE1.mask()
+            | STATBits.INT_MODE2.mask() | STATBits.INT_LYC.mask();
+
     // represents bits of the LCDC register
-    private enum LCDCBits implements Bit {
+    enum LCDCBits implements Bit {
         BG, OBJ, OBJ_SIZE, BG_AREA, TILE_SOURCE, WIN, WIN_AREA, LCD_STATUS
     }
     
-    // sprite's characteristics
-    private enum Sprite {
-        Y, X, TILE_INDEX, OA
-    }
-    
-    // sprite's attributes (bits of OA)
-    private enum OA implements Bit {
-        UNUSED_0, UNUSED_1, UNUSED_2, UNUSED_3, PALETTE, FLIP_H, FLIP_V, BEHIND_BG
+    /**
+     * policies deciding which frames are drawn, the mode changes and
+     * interruptions being the same whatever the policy
+     */
+    public enum RenderPolicy {
+        /** every frame is drawn */
+        EVERY_FRAME,
+        /** one frame every render period is drawn */
+        EVERY_NTH_FRAME,
+        /** the frame following a call to requestFrame() is drawn */
+        ON_REQUEST,
+        /** no frame is drawn, the current image stays the last one drawn */
+        NEVER
     }
     
     /**
@@ -84,20 +109,89 @@ public final class LcdController implements Component, Clocked {
     }
     
     /**
-     * Getter for the current image
+     * Getter for the current image, waiting for it to be drawn when lines are
+     * drawn on another thread
      * 
      * @return currentImage or empty image if current image is null
      */
     public LcdImage currentImage() {
+        if (renderThread != null && renderThread.lastImage() != null) {
+            currentImage = renderThread.lastImage();
+        }
         if (currentImage == null) {
-            BitVector zeroVect = new BitVector(LCD_WIDTH);
-            List<LcdImageLine> lines = Collections.nCopies(LCD_HEIGHT,
-                    new LcdImageLine(zeroVect, zeroVect, zeroVect));
-            return new LcdImage(LCD_WIDTH, LCD_HEIGHT, lines);
+            return new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT).build();
         }
         return currentImage;
     }
     
+    /**
+     * Sets the policy deciding which of the next frames are drawn
+     * 
+     * @param policy
+     * @throws NullPointerException if the policy is null
+     */
+    public void setRenderPolicy(RenderPolicy policy) {
+        renderPolicy = Objects.requireNonNull(policy);
+    }
+    
+    /**
+     * Sets the number of frames between two drawn frames, when only one frame
+     * in every period is drawn
+     * 
+     * @param period, number of frames
+     * @throws IllegalArgumentException if the period is not positive
+     */
+    public void setRenderPeriod(int period) {
+        checkArgument(period > 0);
+        renderPeriod = period;
+    }
+    
+    /**
+     * Sets whether the lines of the next frames are drawn on another thread,
+     * concurrently with the emulation, which gives the same images. That
+     * thread is a daemon thread, which is only stopped by shutdown() or by
+     * drawing the next frames on the calling thread again, so it must be shut
+     * down once the controller is no longer used
+     * 
+     * @param concurrently
+     */
+    public void setRenderConcurrently(boolean concurrently) {
+        renderConcurrently = concurrently;
+    }
+    
+    /**
+     * Stops the thread drawing the lines, if any, once the lines given to it
+     * are drawn. The next lines are drawn by the controller itself, until
+     * drawing concurrently is asked again
+     * 
+     * @throws IllegalStateException if the drawing failed
+     */
+    public void shutdown() {
+        renderConcurrently = false;
+        updateRenderThread();
+    }
+    
+    /**
+     * Asks for the next frame to be drawn, when frames are drawn on request
+     */
+    public void requestFrame() {
+        frameRequested = true;
+    }
+    
+    // returns whether the next frame started is drawn
+    private boolean drawsNextFrame() {
+        switch (renderPolicy) {
+        case EVERY_FRAME:
+            return true;
+        case EVERY_NTH_FRAME:
+            return frameCount % renderPeriod == 0;
+        case ON_REQUEST:
+            return frameRequested;
+        default:
+            return false;
+        }
+    }
+    
     @Override
     public int read(int address) throws IllegalArgumentException {
         address = checkBits16(address);
@@ -105,25 +199,44 @@ public final class LcdController implements Component, Clocked {
             return videoRam.read(address - AddressMap.VIDEO_RAM_START);
         }
         if (address >= AddressMap.OAM_START && address < AddressMap.OAM_END) {
+            copyToOam(cpu.currentCycle());
             return oamRam.read(address - AddressMap.OAM_START);
         }
         if (address >= AddressMap.REGS_LCDC_START && address < AddressMap.REGS_LCDC_END) {
+            // the cpu may have run past some mode changes
+            catchUp(cpu.currentCycle());
             return bench.get(getReg(address));
         }
         return Component.NO_DATA;
     }
 
+    @Override
+    public int[] addressRanges() {
+        return new int[] { AddressMap.VIDEO_RAM_START, AddressMap.VIDEO_RAM_END, 
+                AddressMap.OAM_START, AddressMap.OAM_END, 
+                AddressMap.REGS_LCDC_START, AddressMap.REGS_LCDC_END };
+    }
+
     @Override
     public void write(int address, int data) throws IllegalArgumentException {
         address = checkBits16(address);
         data = checkBits8(data);
         if (address >= AddressMap.VIDEO_RAM_START && address < AddressMap.VIDEO_RAM_END) {
+            long version = videoRam.version();
             videoRam.write(address - AddressMap.VIDEO_RAM_START,  data);
+            // the tiles whose bytes changed are decoded again
+            if (videoRam.version() != version && address < AddressMap.TILE_DATA_END) {
+                int tile = (address - AddressMap.TILE_DATA_START) / LcdRenderer.TILE_BYTES;
+                writtenTiles[tile / Long.SIZE] |= 1L << tile;
+                tilesWritten = true;
+            }
         }
         if (address >= AddressMap.OAM_START && address < AddressMap.OAM_END) {
+            copyToOam(cpu.currentCycle());
             oamRam.write(address - AddressMap.OAM_START, data);
         }
         if (address >= AddressMap.REGS_LCDC_START && address < AddressMap.REGS_LCDC_END) {
+            catchUp(cpu.currentCycle());
             Reg r = getReg(address);
             if (r == Reg.LCDC) {
                 //if LCD_STATUS changes to false 
@@ -139,8 +252,13 @@ public final class LcdController implements Component, Clocked {
             } else if (r == Reg.LYC) {
                 modifyLYorLYC(r, data);
             } else if (r == Reg.DMA) {
+                // a copy in progress goes on from the new source
+                copyToOam(cpu.currentCycle());
+                if (!oamCopyActive) {
+                    oamCopyStart = cpu.currentCycle() + 1;
+                    oamCopyActive = true;
+                }
                 bench.set(r, data);
-                oamCopyActive = true;
             } else if (r == Reg.LY) {
                 return;
             } else {
@@ -151,187 +269,177 @@ public final class LcdController implements Component, Clocked {
     
     @Override
     public void cycle(long cycle) {
-        // handles OAM copy into oamRam
-        if (oamCopyActive) {
-            int data = bus.read((bench.get(Reg.DMA) << 8) + oamCopyCounter);
-            write(AddressMap.OAM_START + oamCopyCounter, data);
-            ++oamCopyCounter;
-            if (oamCopyCounter == oamRam.size()) {
-                oamCopyActive = false;
-                oamCopyCounter = 0;
-            }
-        }
+        copyToOam(cycle);
         // handles turning on of the screen
         if (nextNonIdleCycle == Long.MAX_VALUE && bench.testBit(Reg.LCDC, LCDCBits.LCD_STATUS)) {
             changeModeTo(2);
             // the first cycle executes immediately, so +19 instead of 20
             nextNonIdleCycle = cycle + 19;
         }
-        if (nextNonIdleCycle == cycle && nextNonIdleCycle != Long.MAX_VALUE) {
+        catchUp(cycle);
+    }
+
+    // copies into oamRam at once the bytes of the OAM copy until given cycle included
+    private void copyToOam(long cycle) {
+        if (!oamCopyActive || cycle < oamCopyStart) {
+            return;
+        }
+        int start = oamCopyCounter;
+        int end = (int) Math.min(oamRam.size(), cycle - oamCopyStart + 1);
+        if (end <= start) {
+            return;
+        }
+        // advanced before reading the source, which may be the OAM itself
+        oamCopyCounter = end;
+        if (oamCopyCounter == oamRam.size()) {
+            oamCopyActive = false;
+            oamCopyCounter = 0;
+        }
+        bus.read((bench.get(Reg.DMA) << 8) + start, oamCopyBuffer, 0, end - start);
+        oamRam.write(start, oamCopyBuffer, 0, end - start);
+    }
+
+    // makes the mode changes which happen until given cycle included
+    private void catchUp(long cycle) {
+        while (nextNonIdleCycle <= cycle) {
             reallyCycle();
         }
+    }
 
+    @Override
+    public long nextEventCycle(long cycle) {
+        // the screen is off, it must be clocked as soon as it is turned on
+        if (nextNonIdleCycle == Long.MAX_VALUE) {
+            return bench.testBit(Reg.LCDC, LCDCBits.LCD_STATUS) ? cycle : Long.MAX_VALUE;
+        }
+        if ((bench.get(Reg.STAT) & STAT_INTERRUPTS) != 0) {
+            return nextNonIdleCycle;
+        }
+        // without STAT interruption, only the drawing of a line, the VBLANK and
+        // the publication of the image must happen at their exact cycle, the
+        // other mode changes are made when the registers are accessed
+        int mode = getMode();
+        int lineIndex = currLineIndex();
+        long next = nextNonIdleCycle;
+        boolean drawing = drawingFrame;
+        while (!(mode == 3 && drawing) && !(mode == 0 && lineIndex == LCD_HEIGHT - 1) 
+                && !(mode == 1 && lineIndex == LCD_HEIGHT && drawing)) {
+            if (mode == 2) {
+                mode = 3;
+                next += 43;
+            } else if (mode == 3) {
+                mode = 0;
+                next += 51;
+            } else if (mode == 0) {
+                mode = 2;
+                ++lineIndex;
+                next += 20;
+            } else if (lineIndex < 153) {
+                ++lineIndex;
+                next += CYCLES_PER_LINE;
+            } else {
+                mode = 2;
+                lineIndex = 0;
+                next += 20;
+                drawing = drawsNextFrame();
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public long stableUntil(int address) {
+        // LY and STAT change at the next mode change, which may not be an event
+        if (address == AddressMap.REGS_LCDC_START + Reg.LY.index() 
+                || address == AddressMap.REGS_LCDC_START + Reg.STAT.index()) {
+            catchUp(cpu.currentCycle());
+            return nextNonIdleCycle;
+        }
+        // during a copy to OAM, the bytes not copied yet change when they are reached
+        if (address >= AddressMap.OAM_START && address < AddressMap.OAM_END) {
+            copyToOam(cpu.currentCycle());
+            int index = address - AddressMap.OAM_START;
+            if (oamCopyActive && index >= oamCopyCounter) {
+                return oamCopyStart + index;
+            }
+        }
+        return Long.MAX_VALUE;
     }
 
     private void reallyCycle() {
         int currMode = getMode();
         int lineIndex = currLineIndex();
         if (currMode == 2 && lineIndex == 0) {
-            nextImageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+            drawingFrame = drawsNextFrame();
+            if (drawingFrame) {
+                frameRequested = false;
+            }
+            ++frameCount;
+            updateRenderThread();
         }
         if (currMode == 1 && lineIndex == LCD_HEIGHT) {
-            currentImage = nextImageBuilder.build();
+            if (drawingFrame) {
+                if (renderThread != null) {
+                    renderThread.buildImage();
+                } else {
+                    currentImage = renderer.buildImage();
+                }
+            }
             winY = 0;
         }
-        if (currMode == 3) {
-            nextImageBuilder.setLine(lineIndex, computeLine(lineIndex));
+        if (currMode == 3 && drawingFrame) {
+            drawLine(lineIndex);
         }
         changeToNextMode();
     }
     
-    // computes displayed line of given index
-    private LcdImageLine computeLine(int index) {
-        BitVector zeroVect = new BitVector(LCD_WIDTH);
-        LcdImageLine line = new LcdImageLine(zeroVect, zeroVect, zeroVect);
-        LcdImageLine winLine = line;
-        LcdImageLine bgSpriteLine = line;
-        LcdImageLine fgSpriteLine = line;
-        
-        int tileSrc = AddressMap.TILE_SOURCE[bench.testBit(Reg.LCDC, LCDCBits.TILE_SOURCE) ? 1 : 0];
-        int bgArea = AddressMap.BG_DISPLAY_DATA[bench.testBit(Reg.LCDC, LCDCBits.BG_AREA) ? 1 : 0];
-        int winArea = AddressMap.BG_DISPLAY_DATA[bench.testBit(Reg.LCDC, LCDCBits.WIN_AREA) ? 1 : 0];
-        int WX = bench.get(Reg.WX) - 7;
-        
-        // if needed compute background
-        if (bench.testBit(Reg.LCDC, LCDCBits.BG)) {
-            line = computeLine(bgArea, tileSrc, index + bench.get(Reg.SCY)).mapColors(bench.get(Reg.BGP))
-                    .extractWrapped(bench.get(Reg.SCX), LCD_WIDTH);
-        }
-        // if needed compute window and combines it with background
-        if (bench.testBit(Reg.LCDC, LCDCBits.WIN) && WX < 160 && bench.get(Reg.WY) <= currLineIndex()) {
-            if (WX < 0) 
-                WX = 0;
-            winLine = computeLine(winArea, tileSrc, winY).mapColors(bench.get(Reg.BGP))
-                      .extractWrapped(0, LCD_WIDTH).shift(WX);
-            ++winY;
-            line = line.join(winLine, WX);
-        }
-        // compute foreground and background sprite lines if necessary
-        if (bench.testBit(Reg.LCDC, LCDCBits.OBJ)) {
-            int[] indexes = spritesIntersectingLine();
-            for (int i : indexes) {
-                if (Bits.test(readInOam(i, Sprite.OA), OA.BEHIND_BG)) {
-                    bgSpriteLine = spriteLine(i).below(bgSpriteLine);
-                } else {
-                    fgSpriteLine = spriteLine(i).below(fgSpriteLine);
-                }
+    // starts or stops drawing on another thread as asked, once the lines given
+    // to it are drawn
+    private void updateRenderThread() {
+        if (renderConcurrently && renderThread == null) {
+            renderThread = new LcdRenderThread(renderer);
+        } else if (!renderConcurrently && renderThread != null) {
+            if (renderThread.lastImage() != null) {
+                currentImage = renderThread.lastImage();
             }
+            renderThread.stop();
+            renderThread = null;
         }
-        // combine background + window with sprites
-        BitVector opacity = bgSpriteLine.opacity().and(line.opacity().not());
-        line = line.below(bgSpriteLine, opacity);
-        return line.below(fgSpriteLine);
     }
     
-    private LcdImageLine computeLine(int area, int tileSrc, int index) {
-        LcdImageLine.Builder lineBuilder = new LcdImageLine.Builder(256);
-        int indexInTile = index % Byte.SIZE;
-        int lsb = 0, msb = 0;
-        // Handle vertical wrapping
-        index = Math.floorMod(index, 256);
-        // find Y coordinate of tile
-        index = Math.floorDiv(index, 8);
-        
-        for (int x = 0 ; x < 32 ; ++x) {
-            int tileCode = read(area + index* 32 + x);
-            int tileIndex = tileCode * 16;
-            // reads tile line in correct address range
-            if((tileCode >= 0x80 && tileCode <= 0xFF) || tileSrc == 0x8000) {
-                lsb = read(0x8000 + tileIndex + indexInTile * 2);
-                msb = read(0x8000 + tileIndex + indexInTile * 2 + 1);
+    // gives the renderer the inputs of the line of given index
+    private void drawLine(int index) {
+        long registers = 0;
+        for (Reg r : LcdRenderer.LINE_REGS) {
+            registers = (registers << Byte.SIZE) | bench.get(r);
+        }
+        long[] tiles = null;
+        if (tilesWritten) {
+            tiles = writtenTiles.clone();
+            Arrays.fill(writtenTiles, 0);
+            tilesWritten = false;
+        }
+        if (renderThread != null) {
+            // the emulation goes on meanwhile, so the thread draws from copies
+            if (videoRamCopy == null || videoRamCopy.version() != videoRam.version()) {
+                videoRamCopy = new Ram(videoRam);
             }
-            if (tileCode < 0x80 && tileSrc == 0x8800) {
-                lsb = read(0x9000 + tileIndex + indexInTile * 2);
-                msb = read(0x9000 + tileIndex + indexInTile * 2 + 1);
+            if (oamCopy == null || oamCopy.version() != oamRam.version()) {
+                oamCopy = new Ram(oamRam);
             }
-            lineBuilder.setBytes(x, Bits.reverse8(msb), Bits.reverse8(lsb));
+            renderThread.drawLine(index, registers, winY, videoRamCopy, oamCopy, tiles);
+        } else {
+            renderer.drawLine(index, registers, winY, videoRam, oamRam, tiles);
+        }
+        if (LcdRenderer.windowDrawn(registers, index)) {
+            ++winY;
         }
-        return lineBuilder.build();
     }
-
+    
     private int currLineIndex() {
         return bench.get(Reg.LY);
     }
 
-    //return sorted indexes of sprites to draw intersecting current line
-    private int[] spritesIntersectingLine() {
-        int[] sprites = new int[10];
-        int spriteHeight = bench.testBit(Reg.LCDC, LCDCBits.OBJ_SIZE) ? 16 : 8;
-        int i = 0;
-        int spriteNumber = 0;
-        // finds up to 10 sprites intersecting the line
-        while (i < 40 && spriteNumber < sprites.length) {
-            int spriteY = readInOam(i, Sprite.Y) - 16;
-            if (spriteY <= currLineIndex() && spriteY + spriteHeight > currLineIndex()) {
-                int spriteX = readInOam(i, Sprite.X);
-                sprites[spriteNumber] = (spriteX << 8) | i;
-                ++spriteNumber;
-            }
-            ++i;
-        }
-        Arrays.sort(sprites, 0, spriteNumber);
-        int[] spritesIndexes = new int[spriteNumber];
-        for (int j = 0 ; j < spriteNumber ; ++j) {
-            spritesIndexes[j] = Bits.clip(8, sprites[j]);
-        }
-        return spritesIndexes;
-    }
-    
-    // computes a line containing the sprite at given sprite index in oamRam
-    private LcdImageLine spriteLine(int spriteIndex) {
-        LcdImageLine.Builder lineBuilder = new LcdImageLine.Builder(160);
-        int spriteX = readInOam(spriteIndex, Sprite.X) - 8;
-        int spriteY = readInOam(spriteIndex, Sprite.Y) - 16;
-        int indexInTile = currLineIndex() - spriteY;
-        int spriteTileCode = readInOam(spriteIndex, Sprite.TILE_INDEX);
-        int palette = Bits.test(readInOam(spriteIndex, Sprite.OA), OA.PALETTE) ? 
-                bench.get(Reg.OBP1) : bench.get(Reg.OBP0);
-        //for 16 bit spries the tilecode must be even number.
-        if(spriteTileCode % 2 != 0 && bench.testBit(Reg.LCDC, LCDCBits.OBJ_SIZE)) {
-            spriteTileCode -= 1;
-        }
-        // handles 16 pixels height sprites
-        if (indexInTile >= 8) {
-            ++spriteTileCode;
-            indexInTile -= 8;
-        }
-        // handles vertical flips for 8 and 16 pixels height sprites
-        if (Bits.test(readInOam(spriteIndex, Sprite.OA), OA.FLIP_V)) {
-            indexInTile = 8 - indexInTile;
-            if(bench.testBit(Reg.LCDC, LCDCBits.OBJ_SIZE) ) {
-                if(spriteTileCode != readInOam(spriteIndex, Sprite.TILE_INDEX)) {
-                    --spriteTileCode;
-                } else {
-                    ++spriteTileCode;
-                }
-            }
-        }
-        
-        int spriteTileIndex = spriteTileCode * 16;
-        int lsb = read(0x8000 + spriteTileIndex + indexInTile * 2);
-        int msb = read(0x8000 + spriteTileIndex + indexInTile * 2 + 1); 
-        // handles horizontal flips
-        if (!Bits.test(readInOam(spriteIndex, Sprite.OA), OA.FLIP_H)) {
-            lsb = Bits.reverse8(lsb);
-            msb = Bits.reverse8(msb);
-        }
-        return lineBuilder.setBytes(0, msb, lsb).build().shift(spriteX).mapColors(palette);
-    }
-    
-    private int readInOam(int spriteIndex, Sprite s) {
-        return oamRam.read(spriteIndex * 4 + s.ordinal());
-    }
-    
     // handles transition to next mode
     private void changeToNextMode() {
         int currMode = getMode();
@@ -1,13 +1,10 @@
 package ch.epfl.gameboj.component.lcd;
 
 import static ch.epfl.gameboj.Preconditions.checkArgument;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
-import ch.epfl.gameboj.bits.BitVector;
-
 /**
  * Class LcdImage, represents an image of the GameBoy
  * 
@@ -15,8 +12,11 @@ import ch.epfl.gameboj.bits.BitVector;
  * @author Gianni Lodetti (275085)
  */
 public final class LcdImage {
+    // bits of a pixel holding its color and its opacity
+    static final int COLOR = 0b11, OPAQUE = 0b100;
     private final int width, height;
-    private final List<LcdImageLine> lines;
+    // pixels row after row
+    private final byte[] pixels;
     
     /**
      * Construct an LcdImage of given width, height and lines
@@ -24,12 +24,33 @@ public final class LcdImage {
      * @param width
      * @param height
      * @param lines, list of lines
+     * @throws IllegalArgumentException
+     *             if the width is not a positive multiple of 32, or if the
+     *             number of lines is not the height
      */
     public LcdImage(int width, int height, List<LcdImageLine> lines) {
-        checkArgument(lines.size() == height);
+        checkArgument(width > 0 && width % Integer.SIZE == 0 && lines.size() == height);
         this.width = width;
         this.height = height;
-        this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+        this.pixels = new byte[width * height];
+        for (int y = 0; y < height; ++y) {
+            writeLine(pixels, width, y, lines.get(y));
+        }
+    }
+    
+    private LcdImage(int width, int height, byte[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+    
+    // writes the pixels of given line at given row
+    private static void writeLine(byte[] pixels, int width, int y, LcdImageLine line) {
+        checkArgument(line.size() == width);
+        for (int x = 0; x < width; ++x) {
+            pixels[y * width + x] = (byte) ((line.msb().testBit(x) ? 0b10 : 0) 
+                    | (line.lsb().testBit(x) ? 0b01 : 0) | (line.opacity().testBit(x) ? OPAQUE : 0));
+        }
     }
     
     /**
@@ -59,9 +80,39 @@ public final class LcdImage {
      */
     public int get(int x, int y) {
         checkArgument(x < width && y < height);
-        LcdImageLine line = lines.get(y);
-        return ((line.msb().testBit(x) ? 1 : 0) << 1) | 
-                (line.lsb().testBit(x) ? 1 : 0);
+        return pixels[y * width + x] & COLOR;
+    }
+    
+    /**
+     * Copies the values of the pixels of given row into given array
+     * 
+     * @param y coordinate of the row
+     * @param destination
+     * @param offset, index in destination of the value of the first pixel
+     * @throws IndexOutOfBoundsException
+     *             if the row does not exist or does not fit in destination
+     */
+    public void copyRow(int y, byte[] destination, int offset) {
+        Objects.checkIndex(y, height);
+        Objects.checkFromIndexSize(offset, width, destination.length);
+        for (int x = 0; x < width; ++x) {
+            destination[offset + x] = (byte) (pixels[y * width + x] & COLOR);
+        }
+    }
+    
+    /**
+     * Copies the values of all the pixels, row after row, into given array
+     * 
+     * @param destination
+     * @param offset, index in destination of the value of the first pixel
+     * @throws IndexOutOfBoundsException
+     *             if the image does not fit in destination
+     */
+    public void copyPixels(byte[] destination, int offset) {
+        Objects.checkFromIndexSize(offset, pixels.length, destination.length);
+        for (int i = 0; i < pixels.length; ++i) {
+            destination[offset + i] = (byte) (pixels[i] & COLOR);
+        }
     }
     
     @Override
@@ -69,12 +120,34 @@ public final class LcdImage {
         return ((that instanceof LcdImage) &&
                 this.width == ((LcdImage)that).width && 
                 this.height == ((LcdImage)that).height &&
-                this.lines.equals(((LcdImage)that).lines));
+                Arrays.equals(this.pixels, ((LcdImage)that).pixels));
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(lines, width, height);
+        // same value as the hash of the list of lines, with their msb, lsb and
+        // opacity bitVectors
+        int linesHash = 1;
+        for (int y = 0; y < height; ++y) {
+            int lineHash = 31 * (31 * (31 + planeHash(y, 0b10)) + planeHash(y, 0b01)) 
+                    + planeHash(y, OPAQUE);
+            linesHash = 31 * linesHash + lineHash;
+        }
+        return Objects.hash(linesHash, width, height);
+    }
+    
+    // hash of the bitVector of the given bit of the pixels of given row
+    private int planeHash(int y, int mask) {
+        int hash = 1;
+        for (int word = width / Integer.SIZE - 1; word >= 0; --word) {
+            int value = 0;
+            for (int bit = Integer.SIZE - 1; bit >= 0; --bit) {
+                int pixel = pixels[y * width + word * Integer.SIZE + bit];
+                value = (value << 1) | ((pixel & mask) != 0 ? 1 : 0);
+            }
+            hash = 31 * hash + value;
+        }
+        return hash;
     }
     
     /**
@@ -85,19 +158,21 @@ public final class LcdImage {
      */
     public final static class Builder {
         private int width, height;
-        private List<LcdImageLine> lines;
+        private byte[] pixels;
         
         /**
          * Construct a LcdImage builder of given width and height
          * 
          * @param width
          * @param height
+         * @throws IllegalArgumentException
+         *             if the width is not a positive multiple of 32
          */
         public Builder(int width, int height) {
+            checkArgument(width > 0 && width % Integer.SIZE == 0);
             this.width = width;
             this.height = height;
-            lines = new ArrayList<>(Collections.nCopies(height, new LcdImageLine(
-                    new BitVector(width), new BitVector(width), new BitVector(width))));
+            pixels = new byte[width * height];
         }
         
         /**
@@ -109,10 +184,31 @@ public final class LcdImage {
          * @throws IllegalStateException if the builder has already built
          */
         public LcdImage.Builder setLine(int index, LcdImageLine line) {
-            if (lines == null) 
+            if (pixels == null) 
+                throw new IllegalStateException();
+            Objects.checkIndex(index, height);
+            writeLine(pixels, width, index, line);
+            return this;
+        }
+        
+        /**
+         * Sets the line at given index to the given pixels, each holding its
+         * color in its 2 lsb and its opacity in the third bit, the other bits
+         * being ignored
+         * 
+         * @param index
+         * @param linePixels
+         * @return this
+         * @throws IllegalStateException if the builder has already built
+         */
+        LcdImage.Builder setLine(int index, byte[] linePixels) {
+            if (pixels == null) 
                 throw new IllegalStateException();
             Objects.checkIndex(index, height);
-            lines.set(index, line);
+            checkArgument(linePixels.length == width);
+            for (int x = 0; x < width; ++x) {
+                pixels[index * width + x] = (byte) (linePixels[x] & (COLOR | OPAQUE));
+            }
             return this;
         }
         
@@ -123,10 +219,10 @@ public final class LcdImage {
          * @throws IllegalStateException if the builder has already built
          */
         public LcdImage build() {
-            if (lines == null) 
+            if (pixels == null) 
                 throw new IllegalStateException();
-            LcdImage image = new LcdImage(width, height, lines);
-            lines = null;
+            LcdImage image = new LcdImage(width, height, pixels);
+            pixels = null;
             return image;
         }
         
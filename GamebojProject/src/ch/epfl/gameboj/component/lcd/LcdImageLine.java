@@ -17,11 +17,6 @@ import ch.epfl.gameboj.bits.Bits;
 public final class LcdImageLine {
     private final BitVector msb, lsb, opacity;
     
-    // pixels colors
-    private enum Color {
-        WHITE, GREY, DARK_GREY, BLACK;
-    }
-
     /**
      * Construct a LcdImageLine from given msb, lsb and opacity bitVectors
      * 
@@ -108,53 +103,13 @@ public final class LcdImageLine {
         palette = checkBits8(palette);
         if (palette == 0b11100100)
             return this;
-        // BitVector with 1 at the indexes of the pixels that need to change color
-        BitVector indexes; 
-        LcdImageLine newLine = new LcdImageLine(msb, lsb, opacity);
-        if (extractColor(palette, 6) != Color.BLACK) {
-            indexes = lsb.and(msb);
-            newLine = changeColor(indexes, extractColor(palette, 6), newLine);
-        }
-        if (extractColor(palette, 4) != Color.DARK_GREY) {
-            indexes = msb.and(lsb.not());
-            newLine = changeColor(indexes, extractColor(palette, 4), newLine);
-        }
-        if (extractColor(palette, 2) != Color.GREY) {
-            indexes = lsb.and(msb.not());
-            newLine = changeColor(indexes, extractColor(palette, 2), newLine);
-        }
-        if (extractColor(palette, 0) != Color.WHITE) {
-            indexes = lsb.or(msb).not();
-            newLine = changeColor(indexes, extractColor(palette, 0), newLine);
+        // the new msb and lsb of each color are the bits of its entry in the palette
+        int msbTable = 0, lsbTable = 0;
+        for (int color = 0; color < 4; ++color) {
+            msbTable |= Bits.extract(palette, 2 * color + 1, 1) << color;
+            lsbTable |= Bits.extract(palette, 2 * color, 1) << color;
         }
-        return newLine;
-    }
-    
-    // extract color in palette at given index
-    private Color extractColor(int palette, int index) {
-        return Color.values()[Bits.extract(palette, index, 2)];
-    }
-    
-    // computes new line with new given colors at given indexes of the given line
-    private LcdImageLine changeColor(BitVector indexes, Color color, LcdImageLine line) {
-        BitVector newMsb = line.msb, newLsb = line.lsb;
-        if (color == Color.WHITE) {
-            newLsb = newLsb.and(indexes.not());
-            newMsb = newMsb.and(indexes.not());
-        }
-        if (color == Color.GREY) {
-            newLsb = newLsb.or(indexes);
-            newMsb = newMsb.and(indexes.not());
-        }
-        if (color == Color.DARK_GREY) {
-            newLsb = newLsb.and(indexes.not());
-            newMsb = newMsb.or(indexes);
-        }
-        if (color == Color.BLACK) {
-            newLsb = newLsb.or(indexes);
-            newMsb = newMsb.or(indexes);
-        }
-        return new LcdImageLine(newMsb, newLsb, opacity);
+        return new LcdImageLine(msb.map(lsb, msbTable), msb.map(lsb, lsbTable), opacity);
     }
     
     /**
@@ -178,8 +133,9 @@ public final class LcdImageLine {
      */
     public LcdImageLine below(LcdImageLine other, BitVector opacity) {
         checkArgument(other.size() == this.size());
-        BitVector newMsb = other.msb.and(opacity).or(this.msb.and(opacity.not()));
-        BitVector newLsb = other.lsb.and(opacity).or(this.lsb.and(opacity.not()));
+        BitVector transparency = opacity.not();
+        BitVector newMsb = compose(this.msb, other.msb, opacity, transparency);
+        BitVector newLsb = compose(this.lsb, other.lsb, opacity, transparency);
         BitVector newOpacity = opacity.or(this.opacity);
         return new LcdImageLine(newMsb, newLsb, newOpacity);
     }
@@ -193,11 +149,28 @@ public final class LcdImageLine {
      */
     public LcdImageLine join(LcdImageLine other, int index) {
         checkArgument(other.size() == this.size());
-        LcdImageLine newLine;
         BitVector mask = new BitVector(size(), true).shift(index);
-        newLine = below(other, mask);
+        BitVector transparency = mask.not();
+        BitVector newMsb = compose(this.msb, other.msb, mask, transparency);
+        BitVector newLsb = compose(this.lsb, other.lsb, mask, transparency);
         BitVector newOpacity = other.opacity.shift(index).or(this.opacity);
-        return new LcdImageLine(newLine.msb, newLine.lsb, newOpacity);
+        return new LcdImageLine(newMsb, newLsb, newOpacity);
+    }
+    
+    /**
+     * Composes the bits of above where mask is set with those of under
+     * elsewhere, in place in a single builder
+     * 
+     * @param under, bitVector below
+     * @param above, bitVector above
+     * @param mask, bits taken from above
+     * @param transparency, complement of mask
+     * @return new bitVector
+     */
+    private static BitVector compose(BitVector under, BitVector above,
+            BitVector mask, BitVector transparency) {
+        return new BitVector.Builder(under.size()).or(under).and(transparency)
+                .or(above.and(mask)).build();
     }
     
     @Override
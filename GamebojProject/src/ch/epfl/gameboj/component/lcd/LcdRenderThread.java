@@ -0,0 +1,178 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_HEIGHT;
+
+import ch.epfl.gameboj.component.memory.Ram;
+
+/**
+ * Class LcdRenderThread, draws with a renderer, on its own thread, the lines
+ * given by the controller, which goes on with the emulation meanwhile
+ * 
+ * @author Omid Karimi (273816)
+ * @author Gianni Lodetti (275085)
+ */
+final class LcdRenderThread {
+    // number of lines and image builds which may wait to be drawn
+    private static final int CAPACITY = 2 * (LCD_HEIGHT + 1);
+    private final LcdRenderer renderer;
+    private final Thread thread;
+    // inputs of the lines waiting to be drawn, an index of -1 asking for the
+    // image to be built
+    private final int[] indexes = new int[CAPACITY];
+    private final long[] registers = new long[CAPACITY];
+    private final int[] winYs = new int[CAPACITY];
+    private final Ram[] videoRams = new Ram[CAPACITY];
+    private final Ram[] oams = new Ram[CAPACITY];
+    private final long[][] writtenTiles = new long[CAPACITY][];
+    // number of entries given so far, and drawn so far
+    private long head = 0, tail = 0;
+    private long imagesAsked = 0, imagesBuilt = 0;
+    private LcdImage image;
+    private boolean stopped = false;
+    private Throwable failure;
+
+    /**
+     * Construct a LcdRenderThread drawing with given renderer, which must not
+     * be used elsewhere until the thread is stopped
+     * 
+     * @param renderer
+     */
+    LcdRenderThread(LcdRenderer renderer) {
+        this.renderer = renderer;
+        thread = new Thread(this::run, "lcd-renderer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks for a line to be drawn, see LcdRenderer.drawLine, waiting if too
+     * many lines are not drawn yet
+     * 
+     * @throws IllegalStateException if the drawing failed
+     */
+    synchronized void drawLine(int index, long registers, int winY, Ram videoRam, Ram oam, 
+            long[] writtenTiles) {
+        int i = nextEntry();
+        indexes[i] = index;
+        this.registers[i] = registers;
+        winYs[i] = winY;
+        videoRams[i] = videoRam;
+        oams[i] = oam;
+        this.writtenTiles[i] = writtenTiles;
+        ++head;
+        notifyAll();
+    }
+
+    /**
+     * Asks for the image of the lines drawn so far to be built
+     * 
+     * @throws IllegalStateException if the drawing failed
+     */
+    synchronized void buildImage() {
+        indexes[nextEntry()] = -1;
+        ++head;
+        ++imagesAsked;
+        notifyAll();
+    }
+
+    /**
+     * Returns the last image asked for, waiting for it to be built
+     * 
+     * @return the image, or null if none was asked for
+     * @throws IllegalStateException if the drawing failed
+     */
+    synchronized LcdImage lastImage() {
+        while (imagesBuilt < imagesAsked) {
+            await();
+        }
+        return image;
+    }
+
+    /**
+     * Stops the thread once all the lines given are drawn, and waits for it
+     * to end
+     * 
+     * @throws IllegalStateException if the drawing failed
+     */
+    void stop() {
+        synchronized (this) {
+            while (tail < head) {
+                await();
+            }
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // returns the entry given next, once it is free
+    private int nextEntry() {
+        while (head - tail == CAPACITY) {
+            await();
+        }
+        return (int) (head % CAPACITY);
+    }
+
+    private void await() {
+        if (failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                long end;
+                synchronized (this) {
+                    while (tail == head && !stopped) {
+                        wait();
+                    }
+                    if (tail == head) {
+                        return;
+                    }
+                    end = head;
+                }
+                // the entries until end are not modified until drawn
+                for (long t = tail; t < end; ++t) {
+                    int i = (int) (t % CAPACITY);
+                    LcdImage built = null;
+                    if (indexes[i] < 0) {
+                        built = renderer.buildImage();
+                    } else {
+                        renderer.drawLine(indexes[i], registers[i], winYs[i], videoRams[i], 
+                                oams[i], writtenTiles[i]);
+                    }
+                    synchronized (this) {
+                        if (built != null) {
+                            image = built;
+                            ++imagesBuilt;
+                        }
+                        videoRams[i] = null;
+                        oams[i] = null;
+                        writtenTiles[i] = null;
+                        tail = t + 1;
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package ch.epfl.gameboj.component.lcd;
+
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_HEIGHT;
+import static ch.epfl.gameboj.component.lcd.LcdController.LCD_WIDTH;
+
+import java.util.Arrays;
+
+import ch.epfl.gameboj.AddressMap;
+import ch.epfl.gameboj.bits.Bit;
+import ch.epfl.gameboj.bits.Bits;
+import ch.epfl.gameboj.component.lcd.LcdController.LCDCBits;
+import ch.epfl.gameboj.component.lcd.LcdController.Reg;
+import ch.epfl.gameboj.component.memory.Ram;
+
+/**
+ * Class LcdRenderer, draws the lines of the images of the screen from the
+ * values the registers, the video ram and the OAM had when they were displayed
+ * 
+ * @author Omid Karimi (273816)
+ * @author Gianni Lodetti (275085)
+ */
+final class LcdRenderer {
+    /**
+     * registers the drawing of a line depends on, packed in a long with the
+     * first one in the most significant byte
+     */
+    static final Reg[] LINE_REGS = { Reg.LCDC, Reg.SCX, Reg.SCY, Reg.WX, Reg.WY, 
+            Reg.BGP, Reg.OBP0, Reg.OBP1 };
+    private static final int[] REG_SHIFTS = new int[Reg.values().length];
+    static {
+        for (int i = 0; i < LINE_REGS.length; ++i) {
+            REG_SHIFTS[LINE_REGS[i].ordinal()] = (LINE_REGS.length - 1 - i) * Byte.SIZE;
+        }
+    }
+    
+    // inputs of the line being drawn
+    private int line;
+    private long registers;
+    private int winY;
+    private Ram videoRam, oam;
+    private LcdImage.Builder imageBuilder;
+    // buffers reused by every line, holding one pixel per byte: its color in
+    // the two lsb, its opacity in the third bit and whether a background or
+    // foreground sprite is drawn on it in the next ones
+    // (raw colors for tileBuffer)
+    private final byte[] tileBuffer = new byte[256];
+    private final byte[] lineBuffer = new byte[LCD_WIDTH];
+    private static final int COLOR = LcdImage.COLOR;
+    private static final int OPAQUE = LcdImage.OPAQUE;
+    private static final int BG_SPRITE = 0b1000;
+    private static final int FG_SPRITE = 0b10000;
+    // sprites intersecting each line as (x << 8) | index, in drawing order,
+    // computed again once the OAM or the sprites' size changed
+    private static final int MAX_SPRITES_PER_LINE = 10;
+    private final int[][] lineSprites = new int[LCD_HEIGHT][MAX_SPRITES_PER_LINE];
+    private final int[] lineSpriteCounts = new int[LCD_HEIGHT];
+    private long indexedOamVersion = -1;
+    private boolean indexedBigSprites = false;
+    // last pixels drawn for each line, with the inputs they were drawn from:
+    // registers, versions of the video ram and the OAM, and window line
+    private final byte[][] linePixels = new byte[LCD_HEIGHT][LCD_WIDTH];
+    private final boolean[] lineDrawn = new boolean[LCD_HEIGHT];
+    private final long[] lineRegisters = new long[LCD_HEIGHT];
+    private final long[] lineVideoRamVersions = new long[LCD_HEIGHT];
+    private final long[] lineOamVersions = new long[LCD_HEIGHT];
+    private final int[] lineWinYs = new int[LCD_HEIGHT];
+    /**
+     * number of bytes of a tile, and number of tiles in the video ram
+     */
+    static final int TILE_BYTES = 16;
+    static final int TILES = (AddressMap.TILE_DATA_END - AddressMap.TILE_DATA_START) / TILE_BYTES;
+    // raw colors of the pixels of every tile, row after row, also flipped horizontally,
+    // decoded again when their bytes in the video ram are written
+    private final byte[] tilePixels = new byte[TILES * 64];
+    private final byte[] flippedTilePixels = new byte[TILES * 64];
+    private final boolean[] tileDecoded = new boolean[TILES];
+    
+    // sprite's characteristics
+    private enum Sprite {
+        Y, X, TILE_INDEX, OA
+    }
+    
+    // sprite's attributes (bits of OA)
+    private enum OA implements Bit {
+        UNUSED_0, UNUSED_1, UNUSED_2, UNUSED_3, PALETTE, FLIP_H, FLIP_V, BEHIND_BG
+    }
+    
+    /**
+     * Returns whether the window is drawn on the line of given index
+     * 
+     * @param registers, values of the registers of LINE_REGS
+     * @param index, of the line
+     * @return true if the window is drawn
+     */
+    static boolean windowDrawn(long registers, int index) {
+        return Bits.test(get(registers, Reg.LCDC), LCDCBits.WIN) && get(registers, Reg.WX) - 7 < 160 
+                && get(registers, Reg.WY) <= index;
+    }
+    
+    private static int get(long registers, Reg r) {
+        return (int) (registers >>> REG_SHIFTS[r.ordinal()]) & 0xFF;
+    }
+    
+    private int get(Reg r) {
+        return get(registers, r);
+    }
+    
+    private boolean testBit(Reg r, Bit b) {
+        return Bits.test(get(r), b);
+    }
+    
+    /**
+     * Draws the line of given index of the image being built, unless its
+     * inputs did not change since it was last drawn
+     * 
+     * @param index, of the line
+     * @param registers, values of the registers of LINE_REGS
+     * @param winY, index of the line of the window drawn on this line
+     * @param videoRam, the video ram, not modified while the line is drawn
+     * @param oam, the OAM, not modified while the line is drawn
+     * @param writtenTiles, one bit for every tile whose bytes changed since the
+     *            previous line, or null if none changed
+     */
+    void drawLine(int index, long registers, int winY, Ram videoRam, Ram oam, long[] writtenTiles) {
+        long videoRamVersion = videoRam.version();
+        long oamVersion = oam.version();
+        if (imageBuilder == null) {
+            imageBuilder = new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT);
+        }
+        if (writtenTiles != null) {
+            for (int tile = 0; tile < TILES; ++tile) {
+                if ((writtenTiles[tile / Long.SIZE] & (1L << tile)) != 0) {
+                    tileDecoded[tile] = false;
+                }
+            }
+        }
+        if (lineDrawn[index] && lineRegisters[index] == registers && lineWinYs[index] == winY
+                && lineVideoRamVersions[index] == videoRamVersion 
+                && lineOamVersions[index] == oamVersion) {
+            imageBuilder.setLine(index, linePixels[index]);
+            return;
+        }
+        this.line = index;
+        this.registers = registers;
+        this.winY = winY;
+        this.videoRam = videoRam;
+        this.oam = oam;
+        boolean bigSprites = testBit(Reg.LCDC, LCDCBits.OBJ_SIZE);
+        if (oamVersion != indexedOamVersion || bigSprites != indexedBigSprites) {
+            indexSprites();
+            indexedOamVersion = oamVersion;
+            indexedBigSprites = bigSprites;
+        }
+        computeLine();
+        lineDrawn[index] = true;
+        lineRegisters[index] = registers;
+        lineWinYs[index] = winY;
+        lineVideoRamVersions[index] = videoRamVersion;
+        lineOamVersions[index] = oamVersion;
+        System.arraycopy(lineBuffer, 0, linePixels[index], 0, LCD_WIDTH);
+        imageBuilder.setLine(index, lineBuffer);
+        this.videoRam = null;
+        this.oam = null;
+    }
+    
+    /**
+     * Builds the image of the lines drawn since the previous image
+     * 
+     * @return the image
+     */
+    LcdImage buildImage() {
+        LcdImage image = imageBuilder == null ? new LcdImage.Builder(LCD_WIDTH, LCD_HEIGHT).build()
+                : imageBuilder.build();
+        imageBuilder = null;
+        return image;
+    }
+    
+    // computes displayed line into the line buffer
+    private void computeLine() {
+        int tileSrc = AddressMap.TILE_SOURCE[testBit(Reg.LCDC, LCDCBits.TILE_SOURCE) ? 1 : 0];
+        int bgArea = AddressMap.BG_DISPLAY_DATA[testBit(Reg.LCDC, LCDCBits.BG_AREA) ? 1 : 0];
+        int winArea = AddressMap.BG_DISPLAY_DATA[testBit(Reg.LCDC, LCDCBits.WIN_AREA) ? 1 : 0];
+        int WX = get(Reg.WX) - 7;
+        int bgPalette = get(Reg.BGP);
+        
+        // if needed compute background
+        if (testBit(Reg.LCDC, LCDCBits.BG)) {
+            int scx = get(Reg.SCX);
+            drawTileLine(tileBuffer, bgArea, tileSrc, line + get(Reg.SCY), scx, LCD_WIDTH);
+            for (int x = 0; x < LCD_WIDTH; ++x) {
+                lineBuffer[x] = pixel(bgPalette, tileBuffer[(scx % Byte.SIZE) + x]);
+            }
+        } else {
+            Arrays.fill(lineBuffer, (byte) 0);
+        }
+        // if needed compute window and combines it with background
+        if (windowDrawn(registers, line)) {
+            if (WX < 0) 
+                WX = 0;
+            drawTileLine(tileBuffer, winArea, tileSrc, winY, 0, LCD_WIDTH - WX);
+            // the window's colors replace the background's from WX on, while its
+            // opacity is shifted once more by WX before being added
+            for (int x = WX; x < LCD_WIDTH; ++x) {
+                int color = pixel(bgPalette, tileBuffer[x - WX]) & COLOR;
+                int opacity = lineBuffer[x] & OPAQUE;
+                if (x >= 2 * WX && tileBuffer[x - 2 * WX] != 0) {
+                    opacity = OPAQUE;
+                }
+                lineBuffer[x] = (byte) (color | opacity);
+            }
+        }
+        // draw foreground and background sprites if necessary
+        if (testBit(Reg.LCDC, LCDCBits.OBJ)) {
+            int[] sprites = lineSprites[line];
+            for (int j = 0; j < lineSpriteCounts[line]; ++j) {
+                int i = Bits.clip(8, sprites[j]);
+                drawSprite(i);
+            }
+        }
+    }
+    
+    // packs the color of the given palette and the opacity of the given raw color in a pixel
+    private static byte pixel(int palette, int color) {
+        int mapped = (palette >> (2 * color)) & COLOR;
+        return (byte) (color == 0 ? mapped : mapped | OPAQUE);
+    }
+    
+    // writes in the buffer the raw colors of the tiles of given line of an area
+    // covering the given number of pixels from pixel x, which lands at index x % 8
+    private void drawTileLine(byte[] buffer, int area, int tileSrc, int index, int x, int width) {
+        int indexInTile = index % Byte.SIZE;
+        int row = 0;
+        // Handle vertical wrapping
+        index = Math.floorMod(index, 256);
+        // find Y coordinate of tile
+        index = Math.floorDiv(index, 8);
+        
+        int firstTile = x / Byte.SIZE;
+        int lastTile = (x + width - 1) / Byte.SIZE;
+        for (int tile = firstTile ; tile <= lastTile ; ++tile) {
+            // tiles wrap horizontally
+            int tileCode = readVideoRam(area + index* 32 + tile % 32);
+            int tileIndex = tileCode * 16;
+            // reads tile line in correct address range
+            if((tileCode >= 0x80 && tileCode <= 0xFF) || tileSrc == 0x8000) {
+                row = tileRow(0x8000 + tileIndex + indexInTile * 2);
+            }
+            if (tileCode < 0x80 && tileSrc == 0x8800) {
+                row = tileRow(0x9000 + tileIndex + indexInTile * 2);
+            }
+            System.arraycopy(tilePixels, row, buffer, (tile - firstTile) * Byte.SIZE, Byte.SIZE);
+        }
+    }
+    
+    // returns the index in the decoded tiles of the row whose lsb is at given address
+    private int tileRow(int address) {
+        int tile = (address - AddressMap.TILE_DATA_START) / TILE_BYTES;
+        if (!tileDecoded[tile]) {
+            for (int i = 0; i < TILE_BYTES; i += 2) {
+                int lsb = readVideoRam(AddressMap.TILE_DATA_START + tile * TILE_BYTES + i);
+                int msb = readVideoRam(AddressMap.TILE_DATA_START + tile * TILE_BYTES + i + 1);
+                int row = (tile * TILE_BYTES + i) / 2 * Byte.SIZE;
+                for (int j = 0; j < Byte.SIZE; ++j) {
+                    int bit = Byte.SIZE - 1 - j;
+                    byte color = (byte) (((msb >> bit) & 1) << 1 | ((lsb >> bit) & 1));
+                    tilePixels[row + j] = color;
+                    flippedTilePixels[row + Byte.SIZE - 1 - j] = color;
+                }
+            }
+            tileDecoded[tile] = true;
+        }
+        return (address - AddressMap.TILE_DATA_START) / 2 * Byte.SIZE;
+    }
+    
+    private int readVideoRam(int address) {
+        return videoRam.read(address - AddressMap.VIDEO_RAM_START);
+    }
+
+    // finds for every line up to 10 sprites intersecting it, sorted by x
+    // coordinate then index
+    private void indexSprites() {
+        int spriteHeight = testBit(Reg.LCDC, LCDCBits.OBJ_SIZE) ? 16 : 8;
+        Arrays.fill(lineSpriteCounts, 0);
+        for (int i = 0; i < 40; ++i) {
+            int spriteY = readInOam(i, Sprite.Y) - 16;
+            int sprite = (readInOam(i, Sprite.X) << 8) | i;
+            int firstLine = Math.max(spriteY, 0);
+            int lastLine = Math.min(spriteY + spriteHeight, LCD_HEIGHT);
+            for (int y = firstLine; y < lastLine; ++y) {
+                int[] sprites = lineSprites[y];
+                int j = lineSpriteCounts[y];
+                if (j < MAX_SPRITES_PER_LINE) {
+                    // inserts the sprite at its place
+                    while (j > 0 && sprites[j - 1] > sprite) {
+                        sprites[j] = sprites[j - 1];
+                        --j;
+                    }
+                    sprites[j] = sprite;
+                    ++lineSpriteCounts[y];
+                }
+            }
+        }
+    }
+    
+    // draws the sprite at given sprite index in the OAM in the line buffer, under
+    // the sprites of its kind already drawn and above the other ones
+    private void drawSprite(int spriteIndex) {
+        int spriteX = readInOam(spriteIndex, Sprite.X) - 8;
+        int spriteY = readInOam(spriteIndex, Sprite.Y) - 16;
+        int indexInTile = line - spriteY;
+        int spriteTileCode = readInOam(spriteIndex, Sprite.TILE_INDEX);
+        int palette = Bits.test(readInOam(spriteIndex, Sprite.OA), OA.PALETTE) ? 
+                get(Reg.OBP1) : get(Reg.OBP0);
+        //for 16 bit spries the tilecode must be even number.
+        if(spriteTileCode % 2 != 0 && testBit(Reg.LCDC, LCDCBits.OBJ_SIZE)) {
+            spriteTileCode -= 1;
+        }
+        // handles 16 pixels height sprites
+        if (indexInTile >= 8) {
+            ++spriteTileCode;
+            indexInTile -= 8;
+        }
+        // handles vertical flips for 8 and 16 pixels height sprites
+        if (Bits.test(readInOam(spriteIndex, Sprite.OA), OA.FLIP_V)) {
+            indexInTile = 8 - indexInTile;
+            if(testBit(Reg.LCDC, LCDCBits.OBJ_SIZE) ) {
+                if(spriteTileCode != readInOam(spriteIndex, Sprite.TILE_INDEX)) {
+                    --spriteTileCode;
+                } else {
+                    ++spriteTileCode;
+                }
+            }
+        }
+        
+        int spriteTileIndex = spriteTileCode * 16;
+        int row = tileRow(0x8000 + spriteTileIndex + indexInTile * 2);
+        // handles horizontal flips
+        byte[] pixels = Bits.test(readInOam(spriteIndex, Sprite.OA), OA.FLIP_H) ? 
+                flippedTilePixels : tilePixels;
+        boolean behindBg = Bits.test(readInOam(spriteIndex, Sprite.OA), OA.BEHIND_BG);
+        int first = Math.max(0, -spriteX);
+        int last = Math.min(Byte.SIZE, LCD_WIDTH - spriteX);
+        for (int j = first; j < last; ++j) {
+            int x = spriteX + j;
+            int color = pixels[row + j];
+            int p = lineBuffer[x];
+            // transparent pixels and pixels hidden by previous sprites are not drawn
+            if (color == 0 || (p & FG_SPRITE) != 0) {
+                continue;
+            }
+            if (!behindBg) {
+                lineBuffer[x] = (byte) ((p & ~COLOR) | FG_SPRITE | pixel(palette, color));
+            } else if ((p & BG_SPRITE) == 0) {
+                // background sprites only show where the background is transparent
+                int c = (p & OPAQUE) == 0 ? pixel(palette, color) & COLOR : p & COLOR;
+                lineBuffer[x] = (byte) ((p & ~COLOR) | BG_SPRITE | OPAQUE | c);
+            }
+        }
+    }
+    
+    private int readInOam(int spriteIndex, Sprite s) {
+        return oam.read(spriteIndex * 4 + s.ordinal());
+    }
+    
+}
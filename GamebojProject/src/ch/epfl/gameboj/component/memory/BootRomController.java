@@ -48,4 +48,25 @@ public final class BootRomController implements Component {
         cartridge.write(address, data);
     }
 
+    @Override
+    public int[] addressRanges() {
+        return new int[] { AddressMap.ROM_START, AddressMap.ROM_END, 
+                AddressMap.CARTRIDGE_RAM_START, AddressMap.CARTRIDGE_RAM_END, 
+                AddressMap.REG_BOOT_ROM_DISABLE, AddressMap.REG_BOOT_ROM_DISABLE + 1 };
+    }
+
+    /**
+     * Returns the number of the rom bank mapped at given address, -1 for the
+     * BootRom
+     * 
+     * @param address, below 0x8000
+     * @return rom bank number
+     */
+    public int romBank(int address) {
+        if (bootRomIsActive && address < AddressMap.BOOT_ROM_END) {
+            return -1;
+        }
+        return cartridge.romBank(address);
+    }
+
 }
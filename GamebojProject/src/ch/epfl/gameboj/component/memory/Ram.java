@@ -3,6 +3,8 @@ package ch.epfl.gameboj.component.memory;
 import static ch.epfl.gameboj.Preconditions.checkArgument;
 import static ch.epfl.gameboj.Preconditions.checkBits8;
 
+import java.util.Arrays;
+
 /**
  * Class RAM (random access memory)
  * 
@@ -12,6 +14,8 @@ import static ch.epfl.gameboj.Preconditions.checkBits8;
 public final class Ram {
 
     private final byte[] data;
+    // number of writes which changed the content so far
+    private long version = 0;
 
     /**
      * Construct a an array of given representing a memory
@@ -25,6 +29,16 @@ public final class Ram {
         data = new byte[size];
     }
 
+    /**
+     * Construct a copy of given ram, with the same content and version
+     * 
+     * @param ram
+     */
+    public Ram(Ram ram) {
+        data = ram.data.clone();
+        version = ram.version;
+    }
+
     /**
      * 
      * @return size of the array
@@ -33,6 +47,16 @@ public final class Ram {
         return data.length;
     }
 
+    /**
+     * returns a counter incremented by every write changing the content, so
+     * that the ram did not change while it keeps the same value
+     * 
+     * @return the number of writes which changed the content so far
+     */
+    public long version() {
+        return version;
+    }
+
     /**
      * return the byte, as an unsigned integer, at given index in the data array
      * 
@@ -49,6 +73,37 @@ public final class Ram {
         }
     }
 
+    /**
+     * copies given number of bytes, starting at given index, into given array
+     * 
+     * @param index, of the first byte to read
+     * @param destination
+     * @param offset, in destination of the first byte
+     * @param length, number of bytes to copy
+     * @throws IndexOutOfBoundsException
+     *             if a byte is outside the ram or the destination array
+     */
+    public void read(int index, byte[] destination, int offset, int length) throws IndexOutOfBoundsException {
+        System.arraycopy(data, index, destination, offset, length);
+    }
+
+    /**
+     * copies given number of bytes of given array into the ram, from given index
+     * 
+     * @param index, of the first byte to write
+     * @param source
+     * @param offset, in source of the first byte
+     * @param length, number of bytes to copy
+     * @throws IndexOutOfBoundsException
+     *             if a byte is outside the ram or the source array
+     */
+    public void write(int index, byte[] source, int offset, int length) throws IndexOutOfBoundsException {
+        if (Arrays.mismatch(data, index, index + length, source, offset, offset + length) != -1) {
+            System.arraycopy(source, offset, data, index, length);
+            ++version;
+        }
+    }
+
     /**
      * write given data at the given index in the array
      * 
@@ -62,6 +117,10 @@ public final class Ram {
         if (index < 0 && index >= size()) {
             throw new IndexOutOfBoundsException();
         }
-        data[index] = (byte)checkBits8(value);
+        byte b = (byte)checkBits8(value);
+        if (data[index] != b) {
+            data[index] = b;
+            ++version;
+        }
     }
 }
@@ -6,6 +6,7 @@ import static ch.epfl.gameboj.Preconditions.checkArgument;
 
 import java.util.Objects;
 
+import ch.epfl.gameboj.Bus;
 import ch.epfl.gameboj.component.Component;
 
 /**
@@ -56,6 +57,11 @@ public final class RamController implements Component {
         return NO_DATA;
     }
 
+    @Override
+    public void attachTo(Bus bus) {
+        bus.attachRam(ram, startAddress, endAddress);
+    }
+
     @Override
     public void write(int address, int data) throws IllegalArgumentException {
         address = checkBits16(address);
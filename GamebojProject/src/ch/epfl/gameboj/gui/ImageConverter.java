@@ -2,6 +2,7 @@ package ch.epfl.gameboj.gui;
 
 import ch.epfl.gameboj.component.lcd.LcdController;
 import ch.epfl.gameboj.component.lcd.LcdImage;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 
@@ -30,15 +31,15 @@ public class ImageConverter {
         //SHOULD PROBABLY USE THE IMAGE SIZE INSTEAD OF CONSTANT BIG MISTAKE HERE 
         WritableImage im = new WritableImage(LcdController.LCD_WIDTH, LcdController.LCD_HEIGHT);
         PixelWriter pw = im.getPixelWriter();
-        for (int y = 0 ; y < im.getHeight() ; ++y) {
-            for (int x = 0 ; x < im.getWidth() ; ++x) {
-                if (originalColor) {
-                    pw.setArgb(x, y, COLOR_MAP_GREEN[image.get(x, y)]);
-                } else {
-                    pw.setArgb(x, y, COLOR_MAP[image.get(x, y)]);
-                }
-            }
+        int width = LcdController.LCD_WIDTH, height = LcdController.LCD_HEIGHT;
+        byte[] pixels = new byte[width * height];
+        image.copyPixels(pixels, 0);
+        int[] colorMap = originalColor ? COLOR_MAP_GREEN : COLOR_MAP;
+        int[] argb = new int[pixels.length];
+        for (int i = 0 ; i < pixels.length ; ++i) {
+            argb[i] = colorMap[pixels[i]];
         }
+        pw.setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), argb, 0, width);
         return im;
     }
 
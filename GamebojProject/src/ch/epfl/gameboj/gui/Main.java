@@ -48,6 +48,7 @@ public class Main extends Application {
     private Cartridge cartridge;
     private Stage window;
     private ImageView gameBoyView;
+    private AnimationTimer gameTimer;
     private String fileName;
     //Map linking key codes to Joypad keys
     private HashMap<javafx.scene.input.KeyCode, Joypad.Key> keys;
@@ -103,8 +104,10 @@ public class Main extends Application {
                     CYCLES_PER_ITERATION = (int) (EMULATION_SPEED * 17556);
                 }
                 if (k.equals(resetKeyCode)) {
-                    //save before reloading main menu
+                    //save and stop this gameboy before reloading main menu
                     cartridge.save(fileName);
+                    gameTimer.stop();
+                    gb.lcdController().shutdown();
                     window.close();
                     launchMainMenu();
                 }
@@ -127,13 +130,14 @@ public class Main extends Application {
         });
         
         //Synchronize simulation time to real time
-        new AnimationTimer() {
+        gameTimer = new AnimationTimer() {
             @Override
             public void handle(long now) {
                 gb.runUntil(gb.cycles() + CYCLES_PER_ITERATION);
                 imageView.setImage(ImageConverter.convert(gb.lcdController().currentImage()));
             }
-        }.start();
+        };
+        gameTimer.start();
         
         return imageView;
     }